@@ -0,0 +1,320 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes <code>META-INF/pax-wicket/index</code> into the class output of the compiled bundle. The index lists the
+ * classes annotated with <code>@PaxWicketMountPoint</code> and the classes declaring <code>@Inject</code> fields, one
+ * class per line prefixed by its kind, e.g.:
+ *
+ * <pre>
+ * mount-point org.example.HomePage
+ * inject org.example.HomePage
+ * </pre>
+ *
+ * The index is written even if it's empty, so its presence always tells that the classes compiled together have been
+ * indexed. Pax Wicket uses the index instead of scanning these classes; other entries of the
+ * <code>Bundle-ClassPath</code> (e.g. embedded jars) are still scanned. In addition a <code>FieldInjector</code>
+ * companion is generated for each class declaring <code>@Inject</code> fields (if pax-wicket is on the compile class
+ * path), so those fields are set by plain assignments instead of reflection. Please make sure the index is packaged
+ * with the bundle; with the maven-bundle-plugin add <code>META-INF/pax-wicket=target/classes/META-INF/pax-wicket</code>
+ * to the <code>Include-Resource</code> instruction. Incremental builds compiling only some of the classes merge their
+ * results into the index already in the class output: entries of classes compiled again are replaced, entries of
+ * classes which don't exist anymore are dropped and all others are kept.
+ */
+// all annotation types, so the processor runs (and writes the empty index) even if none of the classes is annotated
+@SupportedAnnotationTypes("*")
+public class PaxWicketIndexProcessor extends AbstractProcessor {
+
+    static final String MOUNT_POINT_ANNOTATION = "org.ops4j.pax.wicket.api.PaxWicketMountPoint";
+
+    static final String INJECT_ANNOTATION = "javax.inject.Inject";
+
+    static final String FIELD_INJECTOR_INTERFACE = "org.ops4j.pax.wicket.spi.FieldInjector";
+
+    static final String FIELD_INJECTOR_SUFFIX = "_PaxWicketFieldInjector";
+
+    static final String INDEX_LOCATION = "META-INF/pax-wicket/index";
+
+    static final String MOUNT_POINT_ENTRY = "mount-point";
+
+    static final String INJECT_ENTRY = "inject";
+
+    private final SortedSet<String> mountPointClasses = new TreeSet<String>();
+
+    private final SortedSet<String> injectClasses = new TreeSet<String>();
+
+    /**
+     * The binary names of all types compiled in this run, their entries of a previous index are outdated.
+     */
+    private final Set<String> compiledClasses = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        for (Element rootElement : roundEnv.getRootElements()) {
+            collectCompiledClasses(rootElement);
+        }
+        Map<TypeElement, List<VariableElement>> injectFields = new LinkedHashMap<TypeElement, List<VariableElement>>();
+        for (TypeElement annotation : annotations) {
+            String annotationName = annotation.getQualifiedName().toString();
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (MOUNT_POINT_ANNOTATION.equals(annotationName) && isType(element)) {
+                    mountPointClasses.add(getBinaryName((TypeElement) element));
+                } else if (INJECT_ANNOTATION.equals(annotationName) && element.getKind() == ElementKind.FIELD
+                        && isType(element.getEnclosingElement())) {
+                    TypeElement type = (TypeElement) element.getEnclosingElement();
+                    injectClasses.add(getBinaryName(type));
+                    List<VariableElement> fields = injectFields.get(type);
+                    if (fields == null) {
+                        fields = new ArrayList<VariableElement>();
+                        injectFields.put(type, fields);
+                    }
+                    fields.add((VariableElement) element);
+                }
+            }
+        }
+        if (processingEnv.getElementUtils().getTypeElement(FIELD_INJECTOR_INTERFACE) != null) {
+            for (Map.Entry<TypeElement, List<VariableElement>> entry : injectFields.entrySet()) {
+                writeFieldInjector(entry.getKey(), entry.getValue());
+            }
+        }
+        // other processors may handle @Inject too, and no annotation may be claimed while supporting "*"
+        return false;
+    }
+
+    /**
+     * Generates the <code>FieldInjector</code> setting the fields of the type directly. Fields the companion can't
+     * access (private or final ones) are left out and are still set by reflection; types which can't be referenced
+     * from their package get no companion at all.
+     */
+    private void writeFieldInjector(TypeElement type, List<VariableElement> fields) {
+        if (!isAccessibleFromPackage(type)) {
+            return;
+        }
+        List<VariableElement> accessibleFields = new ArrayList<VariableElement>();
+        for (VariableElement field : fields) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (!modifiers.contains(Modifier.PRIVATE) && !modifiers.contains(Modifier.FINAL)
+                    && !modifiers.contains(Modifier.STATIC)) {
+                accessibleFields.add(field);
+            }
+        }
+        if (accessibleFields.isEmpty()) {
+            return;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = getBinaryName(type);
+        String simpleName = packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1);
+        String companionName = simpleName.replace('$', '_') + FIELD_INJECTOR_SUFFIX;
+        String targetType = types.erasure(type.asType()).toString();
+        try {
+            JavaFileObject source = processingEnv.getFiler().createSourceFile(
+                packageName.length() == 0 ? companionName : packageName + "." + companionName, type);
+            PrintWriter writer = new PrintWriter(source.openWriter());
+            try {
+                if (packageName.length() != 0) {
+                    writer.println("package " + packageName + ";");
+                    writer.println();
+                }
+                writer.println("/**");
+                writer.println(" * Generated by the pax-wicket annotation processor for {@link " + targetType
+                        + "}, do not edit.");
+                writer.println(" */");
+                writer.println("public final class " + companionName + " implements " + FIELD_INJECTOR_INTERFACE
+                        + " {");
+                writer.println();
+                writer.print("    private static final String[] FIELD_NAMES = {");
+                for (int i = 0; i < accessibleFields.size(); i++) {
+                    writer.print((i == 0 ? " \"" : ", \"") + accessibleFields.get(i).getSimpleName() + "\"");
+                }
+                writer.println(" };");
+                writer.println();
+                writer.println("    public String[] getFieldNames() {");
+                writer.println("        return FIELD_NAMES.clone();");
+                writer.println("    }");
+                writer.println();
+                writer.println("    @SuppressWarnings(\"unchecked\")");
+                writer.println("    public void setField(Object component, int index, Object value) {");
+                writer.println("        " + targetType + " target = (" + targetType + ") component;");
+                writer.println("        switch (index) {");
+                for (int i = 0; i < accessibleFields.size(); i++) {
+                    VariableElement field = accessibleFields.get(i);
+                    TypeMirror fieldType = field.asType();
+                    String valueType = fieldType.getKind().isPrimitive()
+                        ? types.boxedClass((PrimitiveType) fieldType).getQualifiedName().toString()
+                        : types.erasure(fieldType).toString();
+                    writer.println("            case " + i + ":");
+                    writer.println("                target." + field.getSimpleName() + " = (" + valueType + ") value;");
+                    writer.println("                break;");
+                }
+                writer.println("            default:");
+                writer.println(
+                    "                throw new IndexOutOfBoundsException(\"no field with index \" + index);");
+                writer.println("        }");
+                writer.println("    }");
+                writer.println();
+                writer.println("}");
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.ERROR,
+                "Can't write the field injector " + companionName + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the type and all its enclosing types can be referenced by other classes of the
+     *         package
+     */
+    private static boolean isAccessibleFromPackage(TypeElement type) {
+        Element current = type;
+        while (isType(current)) {
+            if (current.getModifiers().contains(Modifier.PRIVATE)
+                    || ((TypeElement) current).getNestingKind() == NestingKind.LOCAL
+                    || ((TypeElement) current).getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            current = current.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void collectCompiledClasses(Element element) {
+        if (!isType(element)) {
+            return;
+        }
+        compiledClasses.add(getBinaryName((TypeElement) element));
+        for (Element enclosed : element.getEnclosedElements()) {
+            collectCompiledClasses(enclosed);
+        }
+    }
+
+    private static boolean isType(Element element) {
+        return element.getKind().isClass() || element.getKind().isInterface();
+    }
+
+    private String getBinaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    /**
+     * Adds the entries of the index written by a previous run to the ones found now, unless the class was compiled
+     * again in this run or doesn't exist anymore.
+     */
+    private void mergePreviousIndex() {
+        List<String> lines = new ArrayList<String>();
+        try {
+            FileObject previousIndex =
+                processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_LOCATION);
+            BufferedReader reader = new BufferedReader(previousIndex.openReader(true));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line.trim());
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // no previous index, e.g. a clean build
+            return;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        for (String line : lines) {
+            int separator = line.indexOf(' ');
+            if (separator < 0) {
+                continue;
+            }
+            String kind = line.substring(0, separator);
+            String className = line.substring(separator + 1).trim();
+            if (compiledClasses.contains(className)
+                    || elements.getTypeElement(className.replace('$', '.')) == null) {
+                continue;
+            }
+            if (MOUNT_POINT_ENTRY.equals(kind)) {
+                mountPointClasses.add(className);
+            } else if (INJECT_ENTRY.equals(kind)) {
+                injectClasses.add(className);
+            }
+        }
+    }
+
+    private void writeIndex() {
+        mergePreviousIndex();
+        try {
+            FileObject index =
+                processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_LOCATION);
+            PrintWriter writer = new PrintWriter(index.openWriter());
+            try {
+                for (String className : mountPointClasses) {
+                    writer.println(MOUNT_POINT_ENTRY + " " + className);
+                }
+                for (String className : injectClasses) {
+                    writer.println(INJECT_ENTRY + " " + className);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.ERROR,
+                "Can't write the pax-wicket index " + INDEX_LOCATION + ": " + e.getMessage());
+        }
+    }
+
+}
@@ -43,4 +43,42 @@ public interface Constants {
      */
     String PAGE_ID = "pax.wicket.pageid";
 
+    /**
+     * Name of the context param (see {@link #CONTEXT_PARAMS}) switching the serializer of the application to compact
+     * class descriptors if set to <code>true</code>. The data of pages is then smaller but can't be read by another
+     * instance of the application, so don't use it if sessions are replicated or persisted.
+     */
+    String COMPACT_CLASS_DESCRIPTORS = "pax.wicket.serializer.compactclassdescriptors";
+
+    /**
+     * Name of the context param (see {@link #CONTEXT_PARAMS}) setting the level (1 to 9, or -1 for the default level)
+     * of the {@link java.util.zip.Deflater} serialized pages are compressed with. Pages are not compressed if not set.
+     */
+    String COMPRESSION_LEVEL = "pax.wicket.serializer.compressionlevel";
+
+    /**
+     * Name of the context param (see {@link #CONTEXT_PARAMS}) setting the size in bytes from which on serialized pages
+     * are compressed. Defaults to 1024.
+     */
+    String COMPRESSION_THRESHOLD = "pax.wicket.serializer.compressionthreshold";
+
+    /**
+     * Name of the context param (see {@link #CONTEXT_PARAMS}) replacing wicket's asynchronous data store by one writing
+     * the serialized pages of each session in order if set to <code>true</code>. Its statistics are registered as
+     * {@link PageStoreStatistics} service.
+     */
+    String ASYNCHRONOUS_PAGE_STORE = "pax.wicket.pagestore.asynchronous";
+
+    /**
+     * Name of the context param (see {@link #CONTEXT_PARAMS}) limiting the number of pages waiting for the workers of
+     * the asynchronous page store; further requests wait until their page is written. Defaults to 100.
+     */
+    String ASYNCHRONOUS_PAGE_STORE_CAPACITY = "pax.wicket.pagestore.asynchronous.capacity";
+
+    /**
+     * Name of the context param (see {@link #CONTEXT_PARAMS}) setting the number of worker threads of the asynchronous
+     * page store. Defaults to 2.
+     */
+    String ASYNCHRONOUS_PAGE_STORE_THREADS = "pax.wicket.pagestore.asynchronous.threads";
+
 }
@@ -0,0 +1,25 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.api;
+
+/**
+ * Registered as a service by pax-wicket as soon as all bundles which had been active when pax-wicket started are
+ * analysed and added to the applications (class resolving, injection and mount points). Bundles are analysed in the
+ * background, so wait for this service if you need all pages to be mounted, e.g. in integration tests.
+ */
+public interface ExtenderReady {
+
+}
@@ -19,6 +19,11 @@ import java.util.List;
 
 import org.apache.wicket.Page;
 
+/**
+ * Provides mount points for an application. All mount points of a registered mounter are mounted in one step and are
+ * unmounted together once the mounter is unregistered; providing many pages by a single mounter is therefore much
+ * cheaper than registering one mounter per page.
+ */
 public interface PageMounter {
 
     void addMountPoint(String path, Class<? extends Page> pageClass);
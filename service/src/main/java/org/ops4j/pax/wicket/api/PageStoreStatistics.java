@@ -0,0 +1,45 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.api;
+
+/**
+ * Registered as a service for each application using the asynchronous page store (see
+ * {@link Constants#ASYNCHRONOUS_PAGE_STORE}), with the name of the application as {@link Constants#APPLICATION_NAME}
+ * property.
+ */
+public interface PageStoreStatistics {
+
+    /**
+     * @return the number of pages waiting to be written
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the time in milliseconds between storing and writing of the page written last
+     */
+    long getLastLagMillis();
+
+    /**
+     * @return the longest time in milliseconds between storing and writing of a page so far
+     */
+    long getMaxLagMillis();
+
+    /**
+     * @return the number of pages whose request had to wait for the page to be written because the queue was full
+     */
+    long getSynchronousWrites();
+
+}
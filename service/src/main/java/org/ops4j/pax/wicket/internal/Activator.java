@@ -15,17 +15,24 @@
  */
 package org.ops4j.pax.wicket.internal;
 
+import java.util.concurrent.TimeUnit;
+
+import org.ops4j.pax.wicket.api.ExtenderReady;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
 import org.ops4j.pax.wicket.internal.extender.BundleDelegatingExtensionTracker;
 import org.ops4j.pax.wicket.internal.extender.BundleImportExtender;
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle;
 import org.ops4j.pax.wicket.internal.extender.PaxWicketBundleListener;
 import org.ops4j.pax.wicket.internal.injection.registry.OSGiServiceRegistryProxyTargetLocatorFactory;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache;
 import org.ops4j.pax.wicket.internal.util.BundleTrackerAggregator;
+import org.ops4j.pax.wicket.internal.util.KeyedSerialExecutor;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.hooks.weaving.WeavingHook;
 import org.osgi.util.tracker.BundleTracker;
@@ -52,17 +59,34 @@ public final class Activator implements BundleActivator {
 
     private BundleImportExtender bundleImportExtender;
 
+    private KeyedSerialExecutor bundleExtensionExecutor;
+
+    private BundleListener scanCacheCleaner;
+
+    private ServiceRegistration<ExtenderReady> extenderReadyRegistration;
+
     private ServiceRegistration<WeavingHook> weavingHockRegistration;
 
     private ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> proxyFactoryTracker;
 
     private ServiceRegistration<ProxyTargetLocatorFactory> proxyFactoryService;
 
+    private OSGiServiceRegistryProxyTargetLocatorFactory internalLocatorFactory;
+
     @SuppressWarnings("unchecked")
     public final void start(BundleContext context) throws Exception {
         LOGGER.debug("Initializing [{}] bundle.", context.getBundle().getSymbolicName());
         bundleContext = context;
 
+        scanCacheCleaner = new BundleListener() {
+            public void bundleChanged(BundleEvent event) {
+                if (event.getType() == BundleEvent.UNINSTALLED) {
+                    BundleScanCache.forget(event.getBundle());
+                }
+            }
+        };
+        context.addBundleListener(scanCacheCleaner);
+
         bundleImportExtender = new BundleImportExtender(context);
         context.addBundleListener(bundleImportExtender);
         weavingHockRegistration = context.registerService(WeavingHook.class, bundleImportExtender, null);
@@ -70,9 +94,9 @@ public final class Activator implements BundleActivator {
         httpTracker = new HttpTracker(context);
         httpTracker.open();
 
-        OSGiServiceRegistryProxyTargetLocatorFactory internalLocatorFactory =
-            new OSGiServiceRegistryProxyTargetLocatorFactory();
+        internalLocatorFactory = new OSGiServiceRegistryProxyTargetLocatorFactory();
         proxyFactoryService = context.registerService(ProxyTargetLocatorFactory.class, internalLocatorFactory, null);
+        context.addBundleListener(internalLocatorFactory);
 
         proxyFactoryTracker = new ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory>(bundleContext,
                 ProxyTargetLocatorFactory.class, null);
@@ -80,11 +104,19 @@ public final class Activator implements BundleActivator {
         bundleDelegatingExtensionTracker = new BundleDelegatingExtensionTracker(context, proxyFactoryTracker);
         applicationFactoryTracker = new PaxWicketAppFactoryTracker(context, httpTracker);
 
+        bundleExtensionExecutor =
+            new KeyedSerialExecutor("pax-wicket-extender", Runtime.getRuntime().availableProcessors());
         PaxWicketBundleListener paxWicketBundleListener =
-            new PaxWicketBundleListener(context, bundleDelegatingExtensionTracker);
+            new PaxWicketBundleListener(context, bundleDelegatingExtensionTracker, bundleExtensionExecutor);
 
         bundleExtensionTracker = new BundleTracker<ExtendedBundle>(context, Bundle.ACTIVE, paxWicketBundleListener);
         bundleExtensionTracker.open();
+        final BundleContext readyContext = context;
+        bundleExtensionExecutor.whenIdle(new Runnable() {
+            public void run() {
+                registerExtenderReady(readyContext);
+            }
+        });
 
         bundleTrackerAggregator =
             new BundleTrackerAggregator<WebApplicationFactory<?>>(context, WebApplicationFactory.class.getName(), null,
@@ -92,6 +124,16 @@ public final class Activator implements BundleActivator {
         bundleTrackerAggregator.open(true);
     }
 
+    private synchronized void registerExtenderReady(BundleContext context) {
+        if (bundleExtensionExecutor == null) {
+            // already stopped
+            return;
+        }
+        extenderReadyRegistration = context.registerService(ExtenderReady.class, new ExtenderReady() {
+        }, null);
+        LOGGER.debug("All active bundles are analysed by pax wicket");
+    }
+
     public static BundleContext getBundleContext() {
         return bundleContext;
     }
@@ -108,8 +150,22 @@ public final class Activator implements BundleActivator {
     public final void stop(BundleContext context) throws Exception {
         weavingHockRegistration.unregister();
         proxyFactoryService.unregister();
+        context.removeBundleListener(internalLocatorFactory);
+        internalLocatorFactory.dispose();
         context.removeBundleListener(bundleImportExtender);
+        context.removeBundleListener(scanCacheCleaner);
+        KeyedSerialExecutor executor;
+        synchronized (this) {
+            executor = bundleExtensionExecutor;
+            bundleExtensionExecutor = null;
+            if (extenderReadyRegistration != null) {
+                extenderReadyRegistration.unregister();
+                extenderReadyRegistration = null;
+            }
+        }
         bundleExtensionTracker.close();
+        // the bundles have to be removed before the applications are
+        executor.shutdown(30, TimeUnit.SECONDS);
         bundleTrackerAggregator.close();
         httpTracker.close();
         bundleContext = null;
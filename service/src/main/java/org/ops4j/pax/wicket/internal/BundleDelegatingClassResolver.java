@@ -19,32 +19,53 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.wicket.application.IClassResolver;
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache.BundleScanner;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class represents an extended class loader automatically trying to load from all bundles added to it.
+ * This class represents an extended class loader automatically trying to load from all bundles added to it. Class
+ * names are routed to the bundle exporting or containing their package, so most lookups cost a single
+ * {@link Bundle#loadClass(String)}. Only split or unknown packages fall back to asking every bundle.
  */
 public class BundleDelegatingClassResolver implements IClassResolver, InternalBundleDelegationProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleDelegatingClassResolver.class);
 
+    private static final String LOCAL_PACKAGES_SCAN = "packages";
+
+    private static final BundleScanner LOCAL_PACKAGES_SCANNER = new LocalPackagesScanner();
+
     private final String applicationName;
     private final BundleContext paxWicketBundleContext;
-    private final Map<String, Bundle> bundles = new HashMap<String, Bundle>();
+    /**
+     * The bundles by id, several versions of a bundle may be added at the same time.
+     */
+    private final Map<Long, Bundle> bundles = new HashMap<Long, Bundle>();
+    private final Map<Long, Set<String>> bundlePackages = new HashMap<Long, Set<String>>();
+    private volatile BundleIndex index = new BundleIndex(Collections.<Bundle> emptyList(),
+        Collections.<String, Bundle> emptyMap());
     private ServiceRegistration<IClassResolver> classResolverRegistration;
 
     public BundleDelegatingClassResolver(BundleContext paxWicketBundleContext, String applicationName) {
@@ -60,10 +81,26 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         if (classResolverRegistration != null) {
             throw new IllegalStateException("Service is already registered");
         }
+        classResolverRegistration =
+            paxWicketBundleContext.registerService(IClassResolver.class, this, createServiceProperties());
+    }
+
+    private Dictionary<String, String> createServiceProperties() {
         Dictionary<String, String> properties = new Hashtable<String, String>();
         properties.put(Constants.APPLICATION_NAME, applicationName);
-        classResolverRegistration =
-            paxWicketBundleContext.registerService(IClassResolver.class, this, properties);
+        return properties;
+    }
+
+    /**
+     * Fires a modified event for the class resolver service, telling the {@link DelegatingClassResolver} of the
+     * application that the set of resolvable classes changed.
+     */
+    private void notifyContentChanged() {
+        try {
+            classResolverRegistration.setProperties(createServiceProperties());
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Class resolver of application {} had already been unregistered", applicationName);
+        }
     }
 
     public void stop() {
@@ -74,60 +111,162 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         classResolverRegistration.unregister();
     }
 
-    public void addBundle(ExtendedBundle bundle) {
+    public void addBundles(Collection<ExtendedBundle> addedBundles) {
         if (classResolverRegistration == null) {
             throw new IllegalStateException("The service is stoped and no more bundles could be added");
         }
+        Map<Long, Bundle> addedBundlesById = new HashMap<Long, Bundle>();
+        Map<Long, Set<String>> packages = new HashMap<Long, Set<String>>();
+        for (ExtendedBundle bundle : addedBundles) {
+            Long bundleId = bundle.getBundle().getBundleId();
+            try {
+                packages.put(bundleId, collectPackages(bundle.getBundle()));
+                addedBundlesById.put(bundleId, bundle.getBundle());
+            } catch (RuntimeException e) {
+                LOGGER.warn("Bundle {} could not be added to the class resolver of application {}", new Object[]{
+                    bundle.getBundle().getSymbolicName(), applicationName, e });
+            }
+        }
         synchronized (bundles) {
-            bundles.put(bundle.getBundle().getSymbolicName(), bundle.getBundle());
+            bundles.putAll(addedBundlesById);
+            bundlePackages.putAll(packages);
+            rebuildIndex();
         }
+        notifyContentChanged();
     }
 
-    public void removeBundle(ExtendedBundle bundle) {
+    public void removeBundles(Collection<ExtendedBundle> removedBundles) {
         if (classResolverRegistration == null) {
             throw new IllegalStateException("The service is stoped and no more bundles could be removed");
         }
         synchronized (bundles) {
-            bundles.remove(bundle.getBundle().getSymbolicName());
+            for (ExtendedBundle bundle : removedBundles) {
+                bundles.remove(bundle.getBundle().getBundleId());
+                bundlePackages.remove(bundle.getBundle().getBundleId());
+            }
+            rebuildIndex();
         }
+        notifyContentChanged();
+    }
+
+    /**
+     * Builds a new routing table from the current bundles; packages provided by more than one bundle are left out so
+     * they are resolved by asking all bundles. Has to be called while holding the lock on {@link #bundles}.
+     */
+    private void rebuildIndex() {
+        Map<String, Bundle> packageOwners = new HashMap<String, Bundle>();
+        Set<String> splitPackages = new HashSet<String>();
+        for (Map.Entry<Long, Set<String>> entry : bundlePackages.entrySet()) {
+            Bundle bundle = bundles.get(entry.getKey());
+            for (String packageName : entry.getValue()) {
+                if (splitPackages.contains(packageName)) {
+                    continue;
+                }
+                if (packageOwners.put(packageName, bundle) != null) {
+                    packageOwners.remove(packageName);
+                    splitPackages.add(packageName);
+                }
+            }
+        }
+        index = new BundleIndex(new ArrayList<Bundle>(bundles.values()), packageOwners);
+    }
+
+    /**
+     * @return the names of all packages exported by the bundle or contained in its own class space
+     */
+    private static Set<String> collectPackages(Bundle bundle) {
+        Set<String> packages = new HashSet<String>();
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring == null) {
+            LOGGER.debug("Bundle {} is not resolved, its classes are resolved by scanning", bundle.getSymbolicName());
+            return packages;
+        }
+        List<BundleCapability> capabilities = wiring.getCapabilities(BundleRevision.PACKAGE_NAMESPACE);
+        if (capabilities != null) {
+            for (BundleCapability capability : capabilities) {
+                Object packageName = capability.getAttributes().get(BundleRevision.PACKAGE_NAMESPACE);
+                if (packageName instanceof String) {
+                    packages.add((String) packageName);
+                }
+            }
+        }
+        packages.addAll(BundleScanCache.getScanResult(bundle, LOCAL_PACKAGES_SCAN, LOCAL_PACKAGES_SCANNER));
+        return packages;
+    }
+
+    private static final class LocalPackagesScanner implements BundleScanner {
+
+        public Collection<String> scan(Bundle bundle) {
+            Set<String> packages = new HashSet<String>();
+            Collection<String> resources = bundle.adapt(BundleWiring.class).listResources("/", "*.class",
+                BundleWiring.LISTRESOURCES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL);
+            if (resources != null) {
+                for (String resource : resources) {
+                    int lastSlash = resource.lastIndexOf('/');
+                    if (lastSlash > 0) {
+                        packages.add(resource.substring(resource.charAt(0) == '/' ? 1 : 0, lastSlash).replace('/',
+                            '.'));
+                    }
+                }
+            }
+            return packages;
+        }
+
     }
 
     public Class<?> resolveClass(String classname) throws ClassNotFoundException {
         LOGGER.trace("Trying to resolve class {} from BundleDelegatingClassResolver", classname);
-        synchronized (bundles) {
-            Collection<Bundle> values = bundles.values();
-            for (Bundle bundle : values) {
-                try {
-                    LOGGER.trace("Trying to load class {} from bundle {}", classname, bundle.getSymbolicName());
-                    Class<?> loadedClass = bundle.loadClass(classname);
-                    LOGGER.debug("Loaded class {} from bundle {}", classname, bundle.getSymbolicName());
-                    return loadedClass;
-                } catch (ClassNotFoundException e) {
-                    LOGGER.trace("Could not load class {} from bundle {} because bundle does not contain the class",
-                        classname, bundle.getSymbolicName());
-                } catch (IllegalStateException e) {
-                    LOGGER.trace("Could not load class {} from bundle {} because bundle had been uninstalled",
-                        classname,
-                        bundle.getSymbolicName());
-                }
+        BundleIndex currentIndex = index;
+        Bundle owner = null;
+        int lastDot = classname.lastIndexOf('.');
+        if (lastDot > 0) {
+            owner = currentIndex.packageOwners.get(classname.substring(0, lastDot));
+        }
+        if (owner != null) {
+            Class<?> loadedClass = loadClass(owner, classname);
+            if (loadedClass != null) {
+                return loadedClass;
+            }
+        }
+        for (Bundle bundle : currentIndex.bundles) {
+            if (bundle == owner) {
+                continue;
+            }
+            Class<?> loadedClass = loadClass(bundle, classname);
+            if (loadedClass != null) {
+                return loadedClass;
             }
         }
         throw new ClassNotFoundException("Class [" + classname + "] can't be resolved.");
     }
 
+    private static Class<?> loadClass(Bundle bundle, String classname) {
+        try {
+            LOGGER.trace("Trying to load class {} from bundle {}", classname, bundle.getSymbolicName());
+            Class<?> loadedClass = bundle.loadClass(classname);
+            LOGGER.debug("Loaded class {} from bundle {}", classname, bundle.getSymbolicName());
+            return loadedClass;
+        } catch (ClassNotFoundException e) {
+            LOGGER.trace("Could not load class {} from bundle {} because bundle does not contain the class",
+                classname, bundle.getSymbolicName());
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Could not load class {} from bundle {} because bundle had been uninstalled",
+                classname,
+                bundle.getSymbolicName());
+        }
+        return null;
+    }
+
     public Iterator<URL> getResources(String name) {
         ArrayList<URL> collectedResources = new ArrayList<URL>();
         try {
-            synchronized (bundles) {
-                Collection<Bundle> values = bundles.values();
-                for (Bundle bundle : values) {
-                    final Enumeration<URL> enumeration = bundle.getResources(name);
-                    if (enumeration == null) {
-                        continue;
-                    }
-                    while (enumeration.hasMoreElements()) {
-                        collectedResources.add(enumeration.nextElement());
-                    }
+            for (Bundle bundle : index.bundles) {
+                final Enumeration<URL> enumeration = bundle.getResources(name);
+                if (enumeration == null) {
+                    continue;
+                }
+                while (enumeration.hasMoreElements()) {
+                    collectedResources.add(enumeration.nextElement());
                 }
             }
         } catch (IOException e) {
@@ -146,4 +285,18 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         throw new UnsupportedOperationException("This method should NOT BE CALLED!");
     }
 
+    /**
+     * Immutable snapshot of the bundles and the package routing table, replaced as a whole on every change.
+     */
+    private static final class BundleIndex {
+
+        private final Collection<Bundle> bundles;
+        private final Map<String, Bundle> packageOwners;
+
+        private BundleIndex(Collection<Bundle> bundles, Map<String, Bundle> packageOwners) {
+            this.bundles = bundles;
+            this.packageOwners = packageOwners;
+        }
+    }
+
 }
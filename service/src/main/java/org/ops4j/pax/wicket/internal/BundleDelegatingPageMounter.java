@@ -17,6 +17,7 @@ package org.ops4j.pax.wicket.internal;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,8 +44,7 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
     private final String applicationName;
     private final BundleContext paxWicketContext;
 
-    private final Map<String, List<DefaultPageMounter>> mountPointRegistrations =
-        new HashMap<String, List<DefaultPageMounter>>();
+    private final Map<Long, DefaultPageMounter> mountPointRegistrations = new HashMap<Long, DefaultPageMounter>();
 
     public BundleDelegatingPageMounter(String applicationName, BundleContext paxWicketContext) {
         this.applicationName = applicationName;
@@ -60,69 +60,74 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
     }
 
     public void stop() {
-        Collection<List<DefaultPageMounter>> values;
+        Collection<DefaultPageMounter> values;
         synchronized (mountPointRegistrations) {
-            values = new ArrayList<List<DefaultPageMounter>>(mountPointRegistrations.values());
+            values = new ArrayList<DefaultPageMounter>(mountPointRegistrations.values());
             mountPointRegistrations.clear();
         }
-        for (List<DefaultPageMounter> bundleMounters : values) {
-            for (DefaultPageMounter pageMounter : bundleMounters) {
-                pageMounter.dispose();
-            }
+        for (DefaultPageMounter pageMounter : values) {
+            pageMounter.dispose();
+        }
+    }
+
+    public void addBundles(Collection<ExtendedBundle> bundles) {
+        for (ExtendedBundle bundle : bundles) {
+            addBundle(bundle);
         }
     }
 
-    public void addBundle(ExtendedBundle bundle) {
+    /**
+     * All mount points of the bundle are registered by a single {@link DefaultPageMounter}, so the application mounts
+     * them in one go.
+     */
+    private void addBundle(ExtendedBundle bundle) {
         String symbolicName = bundle.getBundle().getSymbolicName();
-        if (bundle.isRelevantForMountPointAnnotations()) {
-            LOGGER.trace("Scanning bundle {} for PaxWicketMountPoint annotations", symbolicName);
-            ArrayList<DefaultPageMounter> pageMounter = new ArrayList<DefaultPageMounter>();
-            Collection<Class<?>> allClasses = bundle.getAllClasses();
-            for (Class<?> clazz : allClasses) {
-                PaxWicketMountPoint mountPoint = clazz.getAnnotation(PaxWicketMountPoint.class);
-                if (mountPoint != null) {
-                    if (!Page.class.isAssignableFrom(clazz)) {
-                        LOGGER
-                            .warn(
-                                "ignore PaxWicketMountPoint annotated class {} since it is no page class or has unresolved optional dependencies...",
-                                clazz.getName());
-                        continue;
-                    }
-                    DefaultPageMounter mountPointRegistration =
-                        new DefaultPageMounter(applicationName, paxWicketContext);
-                    // We have checked this before...
-                    @SuppressWarnings("unchecked")
-                    Class<? extends Page> pageClass = (Class<? extends Page>) clazz;
-                    mountPointRegistration.addMountPoint(mountPoint.mountPoint(), pageClass);
-                    mountPointRegistration.register();
-                    pageMounter.add(mountPointRegistration);
-                    LOGGER.info("Mounting page {} at {}", clazz.getName(), mountPoint.mountPoint());
-                }
-            }
-            synchronized (mountPointRegistrations) {
-                if (mountPointRegistrations.containsKey(symbolicName)) {
-                    removeBundle(bundle);
+        if (!bundle.isRelevantForMountPointAnnotations()) {
+            LOGGER.debug("Ignore bundle " + symbolicName + " for PageMounting.");
+            return;
+        }
+        LOGGER.trace("Scanning bundle {} for PaxWicketMountPoint annotations", symbolicName);
+        DefaultPageMounter pageMounter = new DefaultPageMounter(applicationName, paxWicketContext);
+        for (Class<?> clazz : bundle.getMountPointClasses()) {
+            PaxWicketMountPoint mountPoint = clazz.getAnnotation(PaxWicketMountPoint.class);
+            if (mountPoint != null) {
+                if (!Page.class.isAssignableFrom(clazz)) {
+                    LOGGER
+                        .warn(
+                            "ignore PaxWicketMountPoint annotated class {} since it is no page class or has unresolved optional dependencies...",
+                            clazz.getName());
+                    continue;
                 }
-                mountPointRegistrations.put(bundle.getID(), pageMounter);
+                // We have checked this before...
+                @SuppressWarnings("unchecked")
+                Class<? extends Page> pageClass = (Class<? extends Page>) clazz;
+                pageMounter.addMountPoint(mountPoint.mountPoint(), pageClass);
+                LOGGER.info("Mounting page {} at {}", clazz.getName(), mountPoint.mountPoint());
             }
-        } else {
-            LOGGER.debug("Ignore bundle " + symbolicName + " for PageMounting.");
         }
-
+        if (pageMounter.getMountPoints().isEmpty()) {
+            return;
+        }
+        removeBundles(Collections.singleton(bundle));
+        pageMounter.register();
+        synchronized (mountPointRegistrations) {
+            mountPointRegistrations.put(bundle.getBundle().getBundleId(), pageMounter);
+        }
     }
 
-    public void removeBundle(ExtendedBundle bundle) {
-        List<DefaultPageMounter> registrations;
+    public void removeBundles(Collection<ExtendedBundle> bundles) {
+        List<DefaultPageMounter> registrations = new ArrayList<DefaultPageMounter>();
         synchronized (mountPointRegistrations) {
-            registrations = mountPointRegistrations.remove(bundle.getID());
-        }
-        if (registrations == null) {
-            return;
+            for (ExtendedBundle bundle : bundles) {
+                DefaultPageMounter registration = mountPointRegistrations.remove(bundle.getBundle().getBundleId());
+                if (registration != null) {
+                    registrations.add(registration);
+                }
+            }
         }
         for (DefaultPageMounter pageMounter : registrations) {
             pageMounter.dispose();
         }
-
     }
 
 }
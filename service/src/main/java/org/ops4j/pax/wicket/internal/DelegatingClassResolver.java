@@ -20,12 +20,16 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
+import java.lang.reflect.Array;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.wicket.application.IClassResolver;
+import org.ops4j.pax.wicket.internal.util.RecentlyUsedCache;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
@@ -34,22 +38,53 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Resolves classes by asking all {@link IClassResolver} services registered for an application. The class resolved
+ * for a class name is remembered, so repeated lookups neither lock nor scan the resolvers. The remembered answers are
+ * dropped whenever the {@link ClassResolverTracker} reports a change, which the resolvers of pax wicket do whenever
+ * bundles are added or removed. Misses are remembered as well, so a class name none of the resolvers knows costs
+ * neither a lookup nor an exception the next time; since the class names may come from requests (e.g. bookmarkable
+ * urls) both caches are bounded and keep only the names used recently.
+ *
+ * Only answers of pax wicket's own {@link BundleDelegatingClassResolver}s are remembered; other resolvers registered
+ * for the application don't announce changes of their classes, so they are always asked again, and misses are not
+ * remembered at all while such a resolver is registered. Array classes are built from their element class instead
+ * of asking the resolvers, bundles can't load them by name.
+ */
 public final class DelegatingClassResolver implements IClassResolver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DelegatingClassResolver.class);
 
+    /**
+     * Generation size of the remembered classes, at most twice as many are kept.
+     */
+    private static final int RESOLUTIONS_GENERATION_SIZE = 2048;
+
+    /**
+     * Generation size of the remembered misses, at most twice as many are kept.
+     */
+    private static final int MISSES_GENERATION_SIZE = 512;
+
     private final BundleContext context;
     private final String applicationName;
     private final List<IClassResolver> resolvers;
+    private final RecentlyUsedCache<String, Resolution> resolutions;
+    private final RecentlyUsedCache<String, Boolean> misses;
+    private final AtomicLong resolverGeneration;
 
     private ClassResolverTracker tracker;
 
+    private volatile Runnable changeListener;
+
     public DelegatingClassResolver(BundleContext context, String applicationName) throws IllegalArgumentException {
         validateNotNull(context, "context");
         validateNotEmpty(applicationName, "applicationName");
         this.context = context;
         this.applicationName = applicationName;
-        resolvers = new ArrayList<IClassResolver>();
+        resolvers = new CopyOnWriteArrayList<IClassResolver>();
+        resolutions = new RecentlyUsedCache<String, Resolution>(RESOLUTIONS_GENERATION_SIZE);
+        misses = new RecentlyUsedCache<String, Boolean>(MISSES_GENERATION_SIZE);
+        resolverGeneration = new AtomicLong();
     }
 
     public final void intialize() throws IllegalStateException {
@@ -74,6 +109,21 @@ public final class DelegatingClassResolver implements IClassResolver {
         }
     }
 
+    /**
+     * Sets the listener called whenever the classes the resolvers are able to load may have changed, i.e. a resolver
+     * is added, modified or removed.
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void notifyChanged() {
+        Runnable listener = changeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
     /**
      * This method is uses only for some internal wicket stuff if the IClassResolver is NOT replaced and in some IOC
      * stuff also not used by pax wicket. Therefore this method should never ever be called. If it is though we want to
@@ -84,43 +134,155 @@ public final class DelegatingClassResolver implements IClassResolver {
     }
 
     public Class<?> resolveClass(final String classname) throws ClassNotFoundException {
-        synchronized (resolvers) {
-            LOGGER.trace("Try to resolve {} from {} resolvers", classname, resolvers.size());
-            for (IClassResolver resolver : resolvers) {
-                try {
-                    Class<?> candidate = resolver.resolveClass(classname);
-                    if (candidate != null) {
-                        return candidate;
-                    }
-                } catch (ClassNotFoundException e) {
-                    LOGGER.trace("ClassResolver {} could not find class: {}", resolver, classname);
-                } catch (RuntimeException e) {
-                    LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
-                }
+        Class<?> resolvedClass = findClass(classname);
+        if (resolvedClass == null) {
+            throw new ClassNotFoundException(String.format("Class [%s] can't be resolved.", classname));
+        }
+        return resolvedClass;
+    }
+
+    /**
+     * Works like {@link #resolveClass(String)} but returns <code>null</code> for classes which can't be resolved, so
+     * callers expecting misses (like deserialization trying several ways) don't pay for an exception.
+     */
+    public Class<?> findClass(final String classname) {
+        if (classname.startsWith("[")) {
+            return findArrayClass(classname);
+        }
+        Resolution resolution = resolutions.get(classname);
+        if (resolution != null) {
+            return resolution.resolvedClass;
+        }
+        if (misses.get(classname) != null) {
+            return null;
+        }
+        long generation = resolverGeneration.get();
+        LOGGER.trace("Try to resolve {} from {} resolvers", classname, resolvers.size());
+        boolean onlyOwnResolvers = true;
+        for (IClassResolver resolver : resolvers) {
+            Class<?> candidate = tryResolve(resolver, classname);
+            if (candidate != null) {
+                remember(classname, new Resolution(resolver, candidate), generation);
+                return candidate;
             }
+            onlyOwnResolvers &= resolver instanceof BundleDelegatingClassResolver;
+        }
+        if (onlyOwnResolvers) {
+            rememberMiss(classname, generation);
+        }
+        return null;
+    }
+
+    /**
+     * @param classname the binary name of an array class, e.g. <code>[Ljava.lang.String;</code> or <code>[[I</code>
+     * @return the array class of the resolved element class or <code>null</code> if the element class is unknown
+     */
+    private Class<?> findArrayClass(String classname) {
+        int dimensions = 0;
+        while (dimensions < classname.length() && classname.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String elementName = classname.substring(dimensions);
+        Class<?> elementClass;
+        if (elementName.length() > 2 && elementName.charAt(0) == 'L' && elementName.endsWith(";")) {
+            elementClass = findClass(elementName.substring(1, elementName.length() - 1));
+        } else if (elementName.length() == 1) {
+            elementClass = getPrimitiveClass(elementName.charAt(0));
+        } else {
+            elementClass = null;
+        }
+        if (elementClass == null) {
+            return null;
         }
-        throw new ClassNotFoundException(String.format("Class [%s] can't be resolved.", classname));
+        return Array.newInstance(elementClass, new int[dimensions]).getClass();
+    }
+
+    private static Class<?> getPrimitiveClass(char typeCode) {
+        switch (typeCode) {
+            case 'Z':
+                return boolean.class;
+            case 'B':
+                return byte.class;
+            case 'C':
+                return char.class;
+            case 'S':
+                return short.class;
+            case 'I':
+                return int.class;
+            case 'J':
+                return long.class;
+            case 'F':
+                return float.class;
+            case 'D':
+                return double.class;
+            default:
+                return null;
+        }
+    }
+
+    private static Class<?> tryResolve(IClassResolver resolver, String classname) {
+        try {
+            return resolver.resolveClass(classname);
+        } catch (ClassNotFoundException e) {
+            LOGGER.trace("ClassResolver {} could not find class: {}", resolver, classname);
+        } catch (RuntimeException e) {
+            LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
+        }
+        return null;
+    }
+
+    /**
+     * Stores the answer of a lookup of one of pax wicket's resolvers unless the set of resolvers changed while the
+     * lookup was running; in that case the answer might already be outdated and is dropped again.
+     */
+    private void remember(String classname, Resolution resolution, long generation) {
+        if (!(resolution.resolver instanceof BundleDelegatingClassResolver)) {
+            return;
+        }
+        resolutions.put(classname, resolution);
+        if (resolverGeneration.get() != generation) {
+            resolutions.remove(classname, resolution);
+        }
+    }
+
+    private void rememberMiss(String classname, long generation) {
+        misses.put(classname, Boolean.TRUE);
+        if (resolverGeneration.get() != generation) {
+            misses.remove(classname, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * A new resolver may know the classes missed so far.
+     */
+    private void forgetMisses() {
+        resolverGeneration.incrementAndGet();
+        misses.clear();
+    }
+
+    private void forgetAll() {
+        resolverGeneration.incrementAndGet();
+        resolutions.clear();
+        misses.clear();
     }
 
     public Iterator<URL> getResources(String name) {
-        synchronized (resolvers) {
-            ArrayList<URL> collectedResources = new ArrayList<URL>();
-            for (IClassResolver resolver : resolvers) {
-                try {
-                    Iterator<URL> iterator = resolver.getResources(name);
-                    if (iterator == null) {
-                        continue;
-                    }
-                    while (iterator.hasNext()) {
-                        collectedResources.add(iterator.next());
-                    }
-                } catch (RuntimeException e) {
-                    LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
-                    return collectedResources.iterator();
+        ArrayList<URL> collectedResources = new ArrayList<URL>();
+        for (IClassResolver resolver : resolvers) {
+            try {
+                Iterator<URL> iterator = resolver.getResources(name);
+                if (iterator == null) {
+                    continue;
                 }
+                while (iterator.hasNext()) {
+                    collectedResources.add(iterator.next());
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
+                return collectedResources.iterator();
             }
-            return collectedResources.iterator();
         }
+        return collectedResources.iterator();
     }
 
     private final class ClassResolverTracker extends ServiceTracker<IClassResolver, IClassResolver> {
@@ -135,14 +297,18 @@ public final class DelegatingClassResolver implements IClassResolver {
         @Override
         public final IClassResolver addingService(ServiceReference<IClassResolver> reference) {
             IClassResolver resolver = super.addingService(reference);
-            synchronized (resolvers) {
-                resolvers.add(resolver);
-            }
+            // new resolvers are asked last, so the remembered classes stay valid
+            resolvers.add(resolver);
+            forgetMisses();
+            notifyChanged();
             return resolver;
         }
 
         @Override
         public final void modifiedService(ServiceReference<IClassResolver> reference, IClassResolver service) {
+            // a modification is the signal of a resolver that the classes it is able to load changed
+            forgetAll();
+            notifyChanged();
             Object objAppName = reference.getProperty(APPLICATION_NAME);
             if (objAppName != null) {
                 Class<?> nameClass = objAppName.getClass();
@@ -168,13 +334,28 @@ public final class DelegatingClassResolver implements IClassResolver {
         @Override
         public final void removedService(ServiceReference<IClassResolver> reference, IClassResolver service) {
             IClassResolver resolver = service;
-            synchronized (resolvers) {
-                resolvers.remove(resolver);
-            }
+            resolvers.remove(resolver);
+            // resolvers are rarely removed, so the answers of the remaining ones are simply looked up again
+            forgetAll();
+            notifyChanged();
             super.removedService(reference, service);
         }
     }
 
+    /**
+     * A remembered answer: the class and the resolver which loaded it.
+     */
+    private static final class Resolution {
+
+        private final IClassResolver resolver;
+        private final Class<?> resolvedClass;
+
+        private Resolution(IClassResolver resolver, Class<?> resolvedClass) {
+            this.resolver = resolver;
+            this.resolvedClass = resolvedClass;
+        }
+    }
+
     private static Filter createFilter(BundleContext context, String applicationName) {
         String filterStr = "(&(" + OBJECTCLASS + "=" + IClassResolver.class.getName() + ")(" + APPLICATION_NAME + "="
                 + applicationName + "))";
@@ -15,6 +15,8 @@
  */
 package org.ops4j.pax.wicket.internal;
 
+import java.util.Collection;
+
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle;
 
 /**
@@ -34,30 +36,31 @@ public interface InternalBundleDelegationProvider {
 
     /**
      * In this method the component has to start itself. It can either register a service or do any other operations.
-     * Please keep in mind that {@link #addBundle(ExtendedBundle)} and {@link #removeBundle(ExtendedBundle)} couldn't be
+     * Please keep in mind that {@link #addBundles(Collection)} and {@link #removeBundles(Collection)} couldn't be
      * called before this method is called and are likely to throw an {@link IllegalStateException} otherwise.
      */
     void start();
 
     /**
      * In this method the component has to stop itself. It can unregister services or do any other operations for tear
-     * down. Please keep in mind that neither the {@link #addBundle(ExtendedBundle)} nor the
-     * {@link #removeBundle(ExtendedBundle)} are likely to work after this method is called and will throw an
+     * down. Please keep in mind that neither the {@link #addBundles(Collection)} nor the
+     * {@link #removeBundles(Collection)} are likely to work after this method is called and will throw an
      * {@link IllegalStateException}.
      */
     void stop();
 
     /**
-     * Adds a bundle which should be used for delegation. This will thrown an {@link IllegalStateException} in case the
-     * {@link #start()} method had not been called.
+     * Adds bundles which should be used for delegation. All bundles are added in one step, so the application is told
+     * about the change only once. This will thrown an {@link IllegalStateException} in case the {@link #start()} method
+     * had not been called.
      */
-    void addBundle(ExtendedBundle bundle);
+    void addBundles(Collection<ExtendedBundle> bundles);
 
     /**
-     * Removes a bundle which shouldn't be used any longer for delegation. This will throw an
-     * {@link IllegalStateException} in case the {@link #start()} method had not been called already. If you try to
-     * remove a bundle not added by now nothing happens.
+     * Removes bundles which shouldn't be used any longer for delegation in one step. This will throw an
+     * {@link IllegalStateException} in case the {@link #start()} method had not been called already. Bundles not added
+     * by now are ignored.
      */
-    void removeBundle(ExtendedBundle bundle);
+    void removeBundles(Collection<ExtendedBundle> bundles);
 
 }
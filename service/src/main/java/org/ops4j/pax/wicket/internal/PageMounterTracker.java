@@ -21,15 +21,15 @@ import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.wicket.Application;
-import org.apache.wicket.Session;
 import org.apache.wicket.ThreadContext;
-import org.apache.wicket.mock.MockWebRequest;
+import org.apache.wicket.core.request.mapper.MountedMapper;
 import org.apache.wicket.protocol.http.WebApplication;
-import org.apache.wicket.protocol.http.WebSession;
-import org.apache.wicket.request.Request;
-import org.apache.wicket.request.Url;
+import org.apache.wicket.request.IRequestMapper;
+import org.apache.wicket.request.mapper.CompoundRequestMapper;
 import org.ops4j.pax.wicket.api.MountPointInfo;
 import org.ops4j.pax.wicket.api.PageMounter;
 import org.osgi.framework.BundleContext;
@@ -46,6 +46,9 @@ public final class PageMounterTracker extends ServiceTracker<PageMounter, PageMo
 
     private final WebApplication application;
 
+    private final ConcurrentMap<ServiceReference<PageMounter>, IRequestMapper> mounterMappers =
+        new ConcurrentHashMap<ServiceReference<PageMounter>, IRequestMapper>();
+
     public PageMounterTracker(BundleContext context, WebApplication application, String applicationName)
         throws IllegalArgumentException {
         super(context, createFilter(context, applicationName), null);
@@ -68,45 +71,54 @@ public final class PageMounterTracker extends ServiceTracker<PageMounter, PageMo
         }
     }
 
+    /**
+     * Mounts all mount points of the mounter with a single change of the root request mapper; the mount points are
+     * collected in one {@link CompoundRequestMapper} which is removed as a whole again in
+     * {@link #removedService(ServiceReference, PageMounter)}. Since later mappers are asked first, a path mounted again
+     * is served by the latest mount.
+     */
     @Override
     public final PageMounter addingService(ServiceReference<PageMounter> reference) {
         PageMounter mounter = super.addingService(reference);
         List<MountPointInfo> infos = mounter.getMountPoints();
-        for (MountPointInfo info : infos) {
-            LOGGER.trace("Make sure that path {} is clear before trying to remount", info.getPath());
-            Application oldApp = ThreadContext.getApplication();
-            ThreadContext.setApplication(application);
-            try {
-                application.unmount(info.getPath());
-            } catch (IllegalArgumentException e) {
-                LOGGER.trace("Unmounting not possible since nothing here by now.");
-                // this could happen if wicket had not been started at all by now --> simply ignore
+        Application oldApp = ThreadContext.getApplication();
+        ThreadContext.setApplication(application);
+        try {
+            CompoundRequestMapper mounterMapper = new CompoundRequestMapper();
+            for (MountPointInfo info : infos) {
+                LOGGER.trace("Trying to mount {} with {}", info.getPath(), info.getPage().getName());
+                mounterMapper.add(new MountedMapper(info.getPath(), info.getPage()));
             }
-            LOGGER.trace("Trying to mount {} with {}", info.getPath(), info.getPage().getName());
-            application.mountPage(info.getPath(), info.getPage());
+            application.getRootRequestMapperAsCompound().add(mounterMapper);
+            mounterMappers.put(reference, mounterMapper);
+        } finally {
             ThreadContext.setApplication(oldApp);
+        }
+        for (MountPointInfo info : infos) {
             LOGGER.info("Mounted {} with {}", info.getPath(), info.getPage().getName());
         }
         return mounter;
     }
 
+    /**
+     * Removes the mapper of the mounter by identity, so unlike {@link WebApplication#unmount(String)} no request has
+     * to be matched against the mappers and no session is required.
+     */
     @Override
     public final void removedService(ServiceReference<PageMounter> reference, PageMounter mounter) {
-        PageMounter pageMounter = mounter;
-        List<MountPointInfo> infos = pageMounter.getMountPoints();
-        for (MountPointInfo info : infos) {
-            LOGGER.trace("Trying to mount {} with {}", info.getPath(), info.getPage().getName());
+        IRequestMapper mounterMapper = mounterMappers.remove(reference);
+        if (mounterMapper != null) {
             Application oldApp = ThreadContext.getApplication();
             ThreadContext.setApplication(application);
-            if (!Session.exists()) {
-                Request request = new MockWebRequest(Url.parse(info.getPath()));
-                ThreadContext.setSession(new WebSession(request));
+            try {
+                application.getRootRequestMapperAsCompound().remove(mounterMapper);
+            } finally {
+                ThreadContext.setApplication(oldApp);
+            }
+            for (MountPointInfo info : mounter.getMountPoints()) {
+                LOGGER.info("Unmounted {} with {}", info.getPath(), info.getPage().getName());
             }
-            application.unmount(info.getPath());
-            ThreadContext.setApplication(oldApp);
-            LOGGER.info("Unmounted {} with {}", info.getPath(), info.getPage().getName());
         }
-
-        super.removedService(reference, pageMounter);
+        super.removedService(reference, mounter);
     }
 }
@@ -20,21 +20,31 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 import javax.servlet.Filter;
 
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
+import net.sf.cglib.proxy.NoOp;
 
+import org.apache.wicket.Application;
+import org.apache.wicket.DefaultPageManagerProvider;
 import org.apache.wicket.IPageFactory;
+import org.apache.wicket.pageStore.IDataStore;
 import org.apache.wicket.protocol.http.IWebApplicationFactory;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.protocol.http.WicketFilter;
 import org.ops4j.pax.wicket.api.Constants;
+import org.ops4j.pax.wicket.api.PageStoreStatistics;
 import org.ops4j.pax.wicket.api.SuperFilter;
 import org.ops4j.pax.wicket.api.SuperFilters;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
@@ -44,6 +54,7 @@ import org.ops4j.pax.wicket.spi.support.DelegatingComponentInstanciationListener
 import org.ops4j.pax.wicket.util.serialization.PaxWicketSerializer;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -169,19 +180,88 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
         Class<T> applicationClass = factory.getWebApplicationClass();
         Enhancer e = new Enhancer();
         e.setSuperclass(applicationClass);
-        e.setCallback(new WebApplicationWrapper());
+        e.setCallbacks(new Callback[]{ new WebApplicationWrapper(), NoOp.INSTANCE });
+        e.setCallbackFilter(LifecycleMethodFilter.INSTANCE);
         @SuppressWarnings("unchecked")
         T instance = (T) e.create();
         factory.onInstantiation(instance);
         return instance;
     }
 
+    /**
+     * A helper method to verify method signatures.
+     * 
+     * @param method Method to check.
+     * @param name Expected name.
+     * @param returnType Expected return type.
+     * @param parameterTypes Parameters for method.
+     * @return True if all criteria matched.
+     */
+    private static boolean checkSignature(Method method, String name, Class<?> returnType,
+            Class<?>... parameterTypes) {
+        if (method.getName().equals(name) && method.getReturnType() == returnType) {
+            return Arrays.equals(method.getParameterTypes(), parameterTypes);
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the method is derived from Object.finalize()
+     * 
+     * @param method method being tested
+     * @return true if the method is defined from Object.finalize(), false otherwise
+     */
+    private static boolean isFinalizeMethod(Method method) {
+        return checkSignature(method, "finalize", void.class);
+    }
+
+    private static boolean isInitMethod(Method method) {
+        return checkSignature(method, "init", void.class);
+    }
+
+    private static boolean isNewPageFactory(Method method) {
+        return checkSignature(method, "newPageFactory", IPageFactory.class);
+    }
+
+    private static boolean isOnDestoryMethod(Method method) {
+        return checkSignature(method, "onDestroy", void.class);
+    }
+
+    /**
+     * Routes the lifecycle methods of the application to the {@link WebApplicationWrapper} (callback index 0), all
+     * other methods are not intercepted at all ({@link NoOp}, callback index 1). The filter is only consulted while the
+     * enhanced class is generated.
+     */
+    private static final class LifecycleMethodFilter implements CallbackFilter {
+
+        private static final LifecycleMethodFilter INSTANCE = new LifecycleMethodFilter();
+
+        public int accept(Method method) {
+            if (isFinalizeMethod(method) || isInitMethod(method) || isNewPageFactory(method)
+                    || isOnDestoryMethod(method)) {
+                return 0;
+            }
+            return 1;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof LifecycleMethodFilter;
+        }
+
+        @Override
+        public int hashCode() {
+            return LifecycleMethodFilter.class.hashCode();
+        }
+    }
+
     private class WebApplicationWrapper implements MethodInterceptor {
 
-        private PaxWicketPageFactory pageFactory;
+        private volatile PaxWicketPageFactory pageFactory;
         private DelegatingClassResolver delegatingClassResolver;
         private DelegatingComponentInstanciationListener delegatingComponentInstanciationListener;
         private PageMounterTracker mounterTracker;
+        private ServiceRegistration<PageStoreStatistics> statisticsRegistration;
 
         public Object intercept(Object object, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
             if (isFinalizeMethod(method)) {
@@ -194,48 +274,9 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
             } else if (isOnDestoryMethod(method)) {
                 handleOnDestroy();
             }
-            method.setAccessible(true);
             return methodProxy.invokeSuper(object, args);
         }
 
-        /**
-         * A helper method to verify method signatures.
-         * 
-         * @param method Method to check.
-         * @param name Expected name.
-         * @param returnType Expected return type.
-         * @param parameterTypes Parameters for method.
-         * @return True if all criteria matched.
-         */
-        private boolean checkSignature(Method method, String name, Class<?> returnType, Class<?>... parameterTypes) {
-            if (method.getName().equals(name) && method.getReturnType() == returnType) {
-                return Arrays.equals(method.getParameterTypes(), parameterTypes);
-            }
-            return false;
-        }
-
-        /**
-         * Checks if the method is derived from Object.finalize()
-         * 
-         * @param method method being tested
-         * @return true if the method is defined from Object.finalize(), false otherwise
-         */
-        private boolean isFinalizeMethod(Method method) {
-            return checkSignature(method, "finalize", void.class);
-        }
-
-        private boolean isInitMethod(Method method) {
-            return checkSignature(method, "init", void.class);
-        }
-
-        private boolean isNewPageFactory(Method method) {
-            return checkSignature(method, "newPageFactory", IPageFactory.class);
-        }
-
-        private boolean isOnDestoryMethod(Method method) {
-            return checkSignature(method, "onDestroy", void.class);
-        }
-
         private void handleInit(WebApplication application) {
             // application.initApplication();
             delegatingClassResolver = new DelegatingClassResolver(bundleContext, applicationName);
@@ -245,7 +286,21 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
                     new DelegatingComponentInstanciationListener(bundleContext, applicationName);
             delegatingComponentInstanciationListener.intialize();
 
-            application.getFrameworkSettings().setSerializer(new PaxWicketSerializer(getApplicationName()));
+            final PaxWicketSerializer serializer = createSerializer();
+            application.getFrameworkSettings().setSerializer(serializer);
+            // neither the compact class descriptors nor the page factory may keep the classes of changed bundles
+            delegatingClassResolver.setChangeListener(new Runnable() {
+                public void run() {
+                    serializer.retireStaleClassDescriptors();
+                    PaxWicketPageFactory currentPageFactory = pageFactory;
+                    if (currentPageFactory != null) {
+                        currentPageFactory.resetDefaultPageFactory();
+                    }
+                }
+            });
+            if (Boolean.parseBoolean(contextParams.get(Constants.ASYNCHRONOUS_PAGE_STORE))) {
+                application.setPageManagerProvider(new AsynchronousPageManagerProvider(application));
+            }
             application.getComponentInstantiationListeners().add(new ComponentInstantiationListenerFacade(
                     delegatingComponentInstanciationListener));
             application.getApplicationSettings().setClassResolver(delegatingClassResolver);
@@ -254,6 +309,78 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
             filterDelegator.start();
         }
 
+        private PaxWicketSerializer createSerializer() {
+            PaxWicketSerializer serializer = new PaxWicketSerializer(getApplicationName());
+            serializer.setCompactClassDescriptors(Boolean.parseBoolean(contextParams
+                .get(Constants.COMPACT_CLASS_DESCRIPTORS)));
+            int compressionLevel = getIntParam(Constants.COMPRESSION_LEVEL, 0);
+            if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+                LOG.warn("Ignoring invalid compression level {}", compressionLevel);
+            } else {
+                serializer.setCompression(compressionLevel, getIntParam(Constants.COMPRESSION_THRESHOLD, 1024));
+            }
+            return serializer;
+        }
+
+        private int getIntParam(String name, int defaultValue) {
+            String value = contextParams.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid value [{}] of context param {}", value, name);
+                return defaultValue;
+            }
+        }
+
+        /**
+         * Like {@link #getIntParam(String, int)}, but values below the minimum are replaced by the minimum.
+         */
+        private int getIntParam(String name, int defaultValue, int minimum) {
+            int value = getIntParam(name, defaultValue);
+            if (value < minimum) {
+                LOG.warn("Using {} instead of the invalid value {} of context param {}", new Object[]{ minimum, value,
+                    name });
+                return minimum;
+            }
+            return value;
+        }
+
+        /**
+         * Wraps the data store wicket would use into a {@link SessionOrderedDataStore} and registers its statistics.
+         */
+        private final class AsynchronousPageManagerProvider extends DefaultPageManagerProvider {
+
+            private AsynchronousPageManagerProvider(Application application) {
+                super(application);
+            }
+
+            @Override
+            protected IDataStore newDataStore() {
+                SessionOrderedDataStore dataStore = new SessionOrderedDataStore(super.newDataStore(),
+                    getIntParam(Constants.ASYNCHRONOUS_PAGE_STORE_CAPACITY, 100, 0),
+                    getIntParam(Constants.ASYNCHRONOUS_PAGE_STORE_THREADS, 2, 1));
+                registerStatistics(dataStore);
+                return dataStore;
+            }
+        }
+
+        private synchronized void registerStatistics(PageStoreStatistics statistics) {
+            unregisterStatistics();
+            Dictionary<String, Object> properties = new Hashtable<String, Object>();
+            properties.put(Constants.APPLICATION_NAME, applicationName);
+            statisticsRegistration = bundleContext.registerService(PageStoreStatistics.class, statistics, properties);
+        }
+
+        private synchronized void unregisterStatistics() {
+            if (statisticsRegistration != null) {
+                statisticsRegistration.unregister();
+                statisticsRegistration = null;
+            }
+        }
+
         private IPageFactory handleNewPageFactory() {
             if (pageFactory == null) {
                 pageFactory = new PaxWicketPageFactory(bundleContext, applicationName);
@@ -269,6 +396,7 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
             delegatingClassResolver.dispose();
             delegatingComponentInstanciationListener.dispose();
             mounterTracker.close();
+            unregisterStatistics();
             filterDelegator.stop();
         }
 
@@ -17,7 +17,8 @@ package org.ops4j.pax.wicket.internal;
 
 import static org.ops4j.lang.NullArgumentException.validateNotNull;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.wicket.IPageFactory;
 import org.apache.wicket.request.component.IRequestablePage;
@@ -35,14 +36,23 @@ public final class PaxWicketPageFactory implements IPageFactory {
 
     private final BundleContext bundleContext;
     private final String applicationName;
-    private final HashMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>> contents;
+    private final ConcurrentMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>> contents;
+
+    /**
+     * Used for all pages without an own {@link PageFactory}. The instance caches the constructors and the bookmarkable
+     * state per page class, so it's replaced whenever the page factories or the bundles of the application change;
+     * otherwise it would pin the classes of bundles which are gone.
+     */
+    private volatile DefaultPageFactory defaultPageFactory;
 
     private ServiceTracker<PageFactory<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>> m_pageTracker;
 
     public PaxWicketPageFactory(BundleContext context, String applicationName) throws IllegalArgumentException {
         validateNotNull(context, "context");
         validateNotNull(applicationName, "applicationName");
-        contents = new HashMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>>();
+        contents =
+            new ConcurrentHashMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>>();
+        defaultPageFactory = new DefaultPageFactory();
         bundleContext = context;
         this.applicationName = applicationName;
     }
@@ -53,10 +63,8 @@ public final class PaxWicketPageFactory implements IPageFactory {
     }
 
     public final void dispose() {
-        synchronized (this) {
-            contents.clear();
-            m_pageTracker.close();
-        }
+        contents.clear();
+        m_pageTracker.close();
     }
 
     /**
@@ -73,7 +81,7 @@ public final class PaxWicketPageFactory implements IPageFactory {
         if (content != null) {
             return content.createPage(new PageParameters());
         }
-        return new DefaultPageFactory().newPage(pageClass);
+        return defaultPageFactory.newPage(pageClass);
     }
 
     /**
@@ -93,20 +101,23 @@ public final class PaxWicketPageFactory implements IPageFactory {
         if (content != null) {
             return content.createPage(parameters);
         }
-        return new DefaultPageFactory().newPage(pageClass, parameters);
+        return defaultPageFactory.newPage(pageClass, parameters);
+    }
+
+    /**
+     * Drops the constructors and page classes cached so far.
+     */
+    public void resetDefaultPageFactory() {
+        defaultPageFactory = new DefaultPageFactory();
     }
 
     @SuppressWarnings("unchecked")
     private <C extends IRequestablePage> PageFactory<C> getFactory(final Class<C> pageClass) {
-        PageFactory<C> content;
-        synchronized (this) {
-            content = (PageFactory<C>) contents.get(pageClass);
-        }
-        return content;
+        return (PageFactory<C>) contents.get(pageClass);
     }
 
     public <C extends IRequestablePage> boolean isBookmarkable(Class<C> pageClass) {
-        return new DefaultPageFactory().isBookmarkable(pageClass);
+        return defaultPageFactory.isBookmarkable(pageClass);
     }
 
     public void add(PageFactory<? extends IRequestablePage> pageSource)
@@ -114,17 +125,14 @@ public final class PaxWicketPageFactory implements IPageFactory {
         validateNotNull(pageSource, "pageSource");
         Class<? extends IRequestablePage> pageClass = pageSource.getPageClass();
         validateNotNull(pageSource, "pageClass");
-        synchronized (this) {
-            contents.put(pageClass, pageSource);
-        }
+        contents.put(pageClass, pageSource);
+        resetDefaultPageFactory();
     }
 
     public final void remove(PageFactory<? extends IRequestablePage> pageSource) throws IllegalArgumentException {
         validateNotNull(pageSource, "pageSource");
-
-        synchronized (this) {
-            contents.remove(pageSource.getPageClass());
-        }
+        contents.remove(pageSource.getPageClass(), pageSource);
+        resetDefaultPageFactory();
     }
 
 }
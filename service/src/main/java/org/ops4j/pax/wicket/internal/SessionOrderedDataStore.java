@@ -0,0 +1,270 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.ops4j.lang.NullArgumentException.validateNotNull;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.ops4j.pax.wicket.api.PageStoreStatistics;
+import org.ops4j.pax.wicket.internal.util.KeyedSerialExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the serialized pages to the wrapped data store on worker threads. The page is serialized by wicket on the
+ * request thread while the page is still locked, so only the finished bytes are handed over. All operations of a
+ * session (storing and removing pages, unbinding the session) are applied in the order they were called; if a page is
+ * stored again before its previous version was written only the latest version is written. Reading a page which is
+ * not written yet returns the pending bytes, reading a page (or a page of a session) whose removal is still pending
+ * returns <code>null</code>.
+ *
+ * Once more pages are pending than the capacity allows, the request waits until its page is written, so the pending
+ * pages can't use up the memory. Unlike wicket's own asynchronous data store, which writes such pages at once, the
+ * page is still written in the order of its session, so it can't overwrite a removal queued before. The wait is
+ * limited though, a request whose page isn't written in time goes on while its page stays queued.
+ */
+public class SessionOrderedDataStore implements IDataStore, PageStoreStatistics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionOrderedDataStore.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final long WRITE_TIMEOUT_SECONDS = 30;
+
+    private final IDataStore delegate;
+
+    private final int capacity;
+
+    private final KeyedSerialExecutor executor;
+
+    /**
+     * The pages not written yet; a page whose removal is pending is kept as a page without data.
+     */
+    private final ConcurrentMap<PageKey, PendingPage> pendingPages = new ConcurrentHashMap<PageKey, PendingPage>();
+
+    /**
+     * The sessions whose removal is pending, mapped to the token of the latest removal.
+     */
+    private final ConcurrentMap<String, Object> removedSessions = new ConcurrentHashMap<String, Object>();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    private final AtomicLong synchronousWrites = new AtomicLong();
+
+    private volatile long lastLagMillis;
+
+    /**
+     * @param delegate the store the pages are finally written to
+     * @param capacity the number of pending pages above which requests wait for their page to be written
+     * @param threads the number of worker threads
+     */
+    public SessionOrderedDataStore(IDataStore delegate, int capacity, int threads) {
+        validateNotNull(delegate, "delegate");
+        if (capacity < 0 || threads < 1) {
+            throw new IllegalArgumentException("capacity must not be negative and at least one thread is needed");
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        executor = new KeyedSerialExecutor("pax-wicket-page-store", threads);
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long getSynchronousWrites() {
+        return synchronousWrites.get();
+    }
+
+    public void storeData(String sessionId, int id, byte[] data) {
+        final PageKey key = new PageKey(sessionId, id);
+        final PendingPage pendingPage = new PendingPage(data);
+        pendingPages.put(key, pendingPage);
+        boolean full = queueDepth.incrementAndGet() > capacity;
+        executor.execute(sessionId, new Runnable() {
+            public void run() {
+                try {
+                    write(key, pendingPage);
+                } finally {
+                    queueDepth.decrementAndGet();
+                }
+            }
+        });
+        if (full) {
+            LOGGER.debug("{} pages are pending, waiting for page {} to be written", capacity, id);
+            synchronousWrites.incrementAndGet();
+            if (!pendingPage.awaitWritten(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Page {} of session {} was not written within {} seconds", new Object[]{ id, sessionId,
+                    WRITE_TIMEOUT_SECONDS });
+            }
+        }
+    }
+
+    /**
+     * Writes the page unless a newer version had been stored in the meantime or the page had been removed.
+     */
+    private void write(PageKey key, PendingPage pendingPage) {
+        try {
+            if (pendingPages.get(key) == pendingPage) {
+                delegate.storeData(key.sessionId, key.pageId, pendingPage.data);
+                updateLag(System.currentTimeMillis() - pendingPage.storedAt);
+            }
+        } finally {
+            pendingPages.remove(key, pendingPage);
+            pendingPage.written.countDown();
+        }
+    }
+
+    private void updateLag(long lag) {
+        lastLagMillis = lag;
+        long max = maxLagMillis.get();
+        while (lag > max && !maxLagMillis.compareAndSet(max, lag)) {
+            max = maxLagMillis.get();
+        }
+    }
+
+    public byte[] getData(String sessionId, int id) {
+        PendingPage pendingPage = pendingPages.get(new PageKey(sessionId, id));
+        if (pendingPage != null) {
+            // null if the removal of the page is pending
+            return pendingPage.data;
+        }
+        if (removedSessions.containsKey(sessionId)) {
+            return null;
+        }
+        return delegate.getData(sessionId, id);
+    }
+
+    public void removeData(final String sessionId, final int id) {
+        final PageKey key = new PageKey(sessionId, id);
+        final PendingPage removal = new PendingPage(null);
+        pendingPages.put(key, removal);
+        executor.execute(sessionId, new Runnable() {
+            public void run() {
+                try {
+                    delegate.removeData(sessionId, id);
+                } finally {
+                    pendingPages.remove(key, removal);
+                }
+            }
+        });
+    }
+
+    public void removeData(final String sessionId) {
+        final Object removal = new Object();
+        removedSessions.put(sessionId, removal);
+        for (Iterator<PageKey> iterator = pendingPages.keySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().sessionId.equals(sessionId)) {
+                iterator.remove();
+            }
+        }
+        executor.execute(sessionId, new Runnable() {
+            public void run() {
+                try {
+                    delegate.removeData(sessionId);
+                } finally {
+                    removedSessions.remove(sessionId, removal);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes all pending pages before the wrapped store is destroyed.
+     */
+    public void destroy() {
+        executor.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        delegate.destroy();
+    }
+
+    public boolean isReplicated() {
+        return delegate.isReplicated();
+    }
+
+    /**
+     * @return <code>false</code>, the store is asynchronous already and must not be wrapped by wicket again
+     */
+    public boolean canBeAsynchronous() {
+        return false;
+    }
+
+    private static final class PendingPage {
+
+        private final byte[] data;
+        private final long storedAt = System.currentTimeMillis();
+        private final CountDownLatch written = new CountDownLatch(1);
+
+        private PendingPage(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * @return <code>false</code> if the page was not written in time
+         */
+        private boolean awaitWritten(long timeout, TimeUnit unit) {
+            try {
+                return written.await(timeout, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static final class PageKey {
+
+        private final String sessionId;
+        private final int pageId;
+
+        private PageKey(String sessionId, int pageId) {
+            this.sessionId = sessionId;
+            this.pageId = pageId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) obj;
+            return pageId == other.pageId && sessionId.equals(other.sessionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return sessionId.hashCode() * 31 + pageId;
+        }
+    }
+
+}
@@ -15,10 +15,13 @@
  */
 package org.ops4j.pax.wicket.internal.extender;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
@@ -47,6 +50,8 @@ import org.slf4j.LoggerFactory;
  * added to the matching services).
  * 
  * Everytime a bundle is removed it is simply removed from all applications from all services.
+ * 
+ * Bundles are added and removed in batches, the applications only change while no batch is processed.
  */
 public class BundleDelegatingExtensionTracker implements
         ServiceTrackerAggregatorReadyChildren<WebApplicationFactory<?>> {
@@ -54,7 +59,13 @@ public class BundleDelegatingExtensionTracker implements
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleDelegatingExtensionTracker.class);
 
     private final BundleContext paxWicketBundleContext;
-    private final Map<String, ExtendedBundle> relvantBundles = new HashMap<String, ExtendedBundle>();
+    private final Map<Long, ExtendedBundle> relvantBundles = new ConcurrentHashMap<Long, ExtendedBundle>();
+
+    /**
+     * Held for reading while a batch of bundles is added or removed, held for writing while the services of an
+     * application are changed.
+     */
+    private final ReadWriteLock servicesLock = new ReentrantReadWriteLock();
     private final Map<ServiceReference<WebApplicationFactory<?>>, BundleDelegatingClassResolver> classResolvers =
         new HashMap<ServiceReference<WebApplicationFactory<?>>, BundleDelegatingClassResolver>();
     private final Map<ServiceReference<WebApplicationFactory<?>>, BundleDelegatingComponentInstanciationListener> componentInstanciationListener =
@@ -71,23 +82,32 @@ public class BundleDelegatingExtensionTracker implements
     }
 
     public void addingService(ServiceReference<WebApplicationFactory<?>> reference, WebApplicationFactory<?> service) {
-        synchronized (this) {
+        servicesLock.writeLock().lock();
+        try {
             addServicesForServiceReference(reference);
             reevaluateAllBundles(reference);
+        } finally {
+            servicesLock.writeLock().unlock();
         }
     }
 
     public void modifiedService(ServiceReference<WebApplicationFactory<?>> reference, WebApplicationFactory<?> service) {
-        synchronized (this) {
+        servicesLock.writeLock().lock();
+        try {
             removeServicesForServiceReference(reference);
             addServicesForServiceReference(reference);
             reevaluateAllBundles(reference);
+        } finally {
+            servicesLock.writeLock().unlock();
         }
     }
 
     public void removedService(ServiceReference<WebApplicationFactory<?>> reference, WebApplicationFactory<?> service) {
-        synchronized (this) {
+        servicesLock.writeLock().lock();
+        try {
             removeServicesForServiceReference(reference);
+        } finally {
+            servicesLock.writeLock().unlock();
         }
     }
 
@@ -112,57 +132,66 @@ public class BundleDelegatingExtensionTracker implements
     }
 
     private void reevaluateAllBundles(ServiceReference<WebApplicationFactory<?>> reference) {
-        Collection<ExtendedBundle> bundles = relvantBundles.values();
-        for (ExtendedBundle bundle : bundles) {
-            addBundleToServicesReference(bundle, reference);
+        Collection<ExtendedBundle> bundles = new ArrayList<ExtendedBundle>(relvantBundles.values());
+        if (!bundles.isEmpty()) {
+            addBundlesToServicesReference(bundles, reference);
         }
     }
 
-    public void addRelevantBundle(ExtendedBundle bundle) {
-        synchronized (this) {
-            relvantBundles.put(bundle.getID(), bundle);
-            Set<ServiceReference<WebApplicationFactory<?>>> services = classResolvers.keySet();
-            for (ServiceReference<WebApplicationFactory<?>> serviceReference : services) {
-                addBundleToServicesReference(bundle, serviceReference);
+    /**
+     * Applies a batch of bundle changes: the removed bundles are taken away from every application first, then the
+     * added ones are handed in, each in a single step per application and service. A bundle which has been updated
+     * may be contained in both collections.
+     */
+    public void updateRelevantBundles(Collection<ExtendedBundle> removedBundles,
+            Collection<ExtendedBundle> addedBundles) {
+        servicesLock.readLock().lock();
+        try {
+            for (ExtendedBundle bundle : removedBundles) {
+                relvantBundles.remove(bundle.getBundle().getBundleId());
+            }
+            for (ExtendedBundle bundle : addedBundles) {
+                relvantBundles.put(bundle.getBundle().getBundleId(), bundle);
             }
+            for (ServiceReference<WebApplicationFactory<?>> reference : classResolvers.keySet()) {
+                if (!removedBundles.isEmpty()) {
+                    removeBundlesFromServicesReference(removedBundles, reference);
+                }
+                if (!addedBundles.isEmpty()) {
+                    addBundlesToServicesReference(addedBundles, reference);
+                }
+            }
+        } finally {
+            servicesLock.readLock().unlock();
         }
     }
 
-    private void addBundleToServicesReference(ExtendedBundle bundle,
+    private void addBundlesToServicesReference(Collection<ExtendedBundle> bundles,
             ServiceReference<WebApplicationFactory<?>> reference) {
         try {
-            classResolvers.get(reference).addBundle(bundle);
+            classResolvers.get(reference).addBundles(bundles);
         } catch (Throwable e) {
             LOGGER.warn("A specific reference could not be added to the classResolvers; might not be too bad", e);
         }
         try {
-            componentInstanciationListener.get(reference).addBundle(bundle);
+            componentInstanciationListener.get(reference).addBundles(bundles);
         } catch (Throwable e) {
             LOGGER.warn(
                 "A specific reference could not be added to the componentInstanciationListener; might not be too bad",
                 e);
         }
         try {
-            pageMounter.get(reference).addBundle(bundle);
+            pageMounter.get(reference).addBundles(bundles);
         } catch (Throwable e) {
             LOGGER.warn("A specific reference could not be added to pageMounter; might not be too bad", e);
         }
     }
 
-    public void removeRelevantBundle(ExtendedBundle bundle) {
-        synchronized (this) {
-            relvantBundles.remove(bundle.getID());
-            removeBundleFromAllServices(bundle);
-        }
-    }
-
-    private void removeBundleFromAllServices(ExtendedBundle bundle) {
-        Set<ServiceReference<WebApplicationFactory<?>>> services = classResolvers.keySet();
-        for (ServiceReference<WebApplicationFactory<?>> reference : services) {
-            classResolvers.get(reference).removeBundle(bundle);
-            componentInstanciationListener.get(reference).removeBundle(bundle);
-            pageMounter.get(reference).removeBundle(bundle);
-        }
+    private void removeBundlesFromServicesReference(Collection<ExtendedBundle> bundles,
+            ServiceReference<WebApplicationFactory<?>> reference) {
+        classResolvers.get(reference).removeBundles(bundles);
+        componentInstanciationListener.get(reference).removeBundles(bundles);
+        pageMounter.get(reference).removeBundles(bundles);
     }
 
 }
@@ -16,9 +16,9 @@
 package org.ops4j.pax.wicket.internal.extender;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle.ExtendedBundleContext;
 import org.osgi.framework.Bundle;
@@ -27,6 +27,7 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.hooks.weaving.WeavingHook;
 import org.osgi.framework.hooks.weaving.WovenClass;
+import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +40,11 @@ public class BundleImportExtender implements WeavingHook, SynchronousBundleListe
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleImportExtender.class);
 
-    private final Set<Long> extendedBundles = new HashSet<Long>();
+    /**
+     * The decisions taken for the current revision of each bundle by its bundle id; weave is called for every class
+     * loaded in the framework, so it must not lock.
+     */
+    private final ConcurrentMap<Long, WeavingDecision> extendedBundles = new ConcurrentHashMap<Long, WeavingDecision>();
 
     private final List<String> additionalImports = new ArrayList<String>();
 
@@ -61,15 +66,22 @@ public class BundleImportExtender implements WeavingHook, SynchronousBundleListe
         try {
             BundleWiring bundleWiring = wovenClass.getBundleWiring();
             Bundle bundle = bundleWiring.getBundle();
-            synchronized (extendedBundles) {
-                if (extendedBundles.contains(bundle.getBundleId())) {
-                    // Nothing to do
-                    return;
-                }
-                extendedBundles.add(bundle.getBundleId());
+            BundleRevision revision = bundleWiring.getRevision();
+            WeavingDecision current = extendedBundles.get(bundle.getBundleId());
+            if (current != null && current.revision.equals(revision)) {
+                // Nothing to do
+                return;
             }
             ExtendedBundle extendedBundle = new ExtendedBundle(extendedBundleContext, bundle);
-            if (extendedBundle.isRelevantForImportEnhancements()) {
+            WeavingDecision decision =
+                new WeavingDecision(revision, extendedBundle.isRelevantForImportEnhancements());
+            boolean decided = current == null ? extendedBundles.putIfAbsent(bundle.getBundleId(), decision) == null
+                    : extendedBundles.replace(bundle.getBundleId(), current, decision);
+            if (!decided) {
+                // another class of the same bundle is woven concurrently and took care of it
+                return;
+            }
+            if (decision.relevant) {
                 LOGGER.debug("Enhance DynamicImports of bundle {}...", bundle.getSymbolicName());
                 wovenClass.getDynamicImports().addAll(additionalImports);
             }
@@ -86,9 +98,21 @@ public class BundleImportExtender implements WeavingHook, SynchronousBundleListe
             case BundleEvent.UNINSTALLED:
             case BundleEvent.UNRESOLVED:
             case BundleEvent.STOPPED:
-                synchronized (extendedBundles) {
-                    extendedBundles.remove(event.getBundle().getBundleId());
-                }
+                extendedBundles.remove(event.getBundle().getBundleId());
+        }
+    }
+
+    /**
+     * Whether the dynamic imports are added to a revision of a bundle.
+     */
+    private static final class WeavingDecision {
+
+        private final BundleRevision revision;
+        private final boolean relevant;
+
+        private WeavingDecision(BundleRevision revision, boolean relevant) {
+            this.revision = revision;
+            this.relevant = relevant;
         }
     }
 }
@@ -15,19 +15,26 @@
  */
 package org.ops4j.pax.wicket.internal.extender;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
 import org.ops4j.pax.wicket.internal.Activator;
+import org.ops4j.pax.wicket.internal.util.BundleClassFileScanner;
+import org.ops4j.pax.wicket.internal.util.BundleContentIndex;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache.BundleScanner;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
@@ -58,10 +65,26 @@ public class ExtendedBundle {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketBundleListener.class);
 
+    private static final BundleClassFileScanner MOUNT_POINT_SCANNER =
+        new BundleClassFileScanner(PaxWicketMountPoint.class);
+
+    private static final String MOUNT_POINT_SCAN = "mount-points";
+
+    private static final BundleScanner MOUNT_POINT_CLASS_SCANNER = new MountPointClassScanner();
+
+    private static final String MOUNT_POINT_CLASS_PATH_SCAN = "mount-points-classpath";
+
+    private static final BundleScanner MOUNT_POINT_CLASS_PATH_SCANNER = new MountPointClassPathScanner();
+
     private final Bundle bundle;
 
     private final ExtendedBundleContext bundleContext;
 
+    /**
+     * The mount point classes once loaded; they are shared by all applications the bundle is added to.
+     */
+    private volatile Collection<Class<?>> mountPointClasses;
+
     /**
      * @param bundle
      */
@@ -134,8 +157,18 @@ public class ExtendedBundle {
      */
     public boolean isImportingWicket() {
         BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
-        // First check if there is a wiring to any package of org.apache.wicket
         List<BundleWire> importPackageWires = bundleWiring.getRequiredWires(OSGI_WIRING_PACKAGE_NAMESPACE);
+        WiringAnalysis analysis = bundleContext.getWiringAnalysis(bundleWiring, importPackageWires.size());
+        Boolean importingWicket = analysis.importingWicket;
+        if (importingWicket == null) {
+            importingWicket = analyseImportingWicket(bundleWiring, importPackageWires);
+            analysis.importingWicket = importingWicket;
+        }
+        return importingWicket;
+    }
+
+    private static boolean analyseImportingWicket(BundleWiring bundleWiring, List<BundleWire> importPackageWires) {
+        // First check if there is a wiring to any package of org.apache.wicket
         for (BundleWire bundleWire : importPackageWires) {
             BundleRequirement requirement = bundleWire.getRequirement();
             String filter = requirement.getDirectives().get(FILTER_DIRECTIVE);
@@ -146,19 +179,11 @@ public class ExtendedBundle {
                 }
             }
         }
-        List<BundleWire> requireBundleWires = bundleWiring.getRequiredWires(OSGI_WIRING_BUNDLE_NAMESPACE);
-        if (!requireBundleWires.isEmpty()) {
-            // find all apache.wicket bundles and check if there are wirings...
-            Bundle[] bundles = bundleContext.paxBundleContext.getBundles();
-            for (Bundle bundle : bundles) {
-                String symbolicName = bundle.getSymbolicName();
-                if (symbolicName.startsWith(APACHE_WICKET_NAMESPACE)) {
-                    Map<String, Object> map = createMapWithVersion(OSGI_WIRING_BUNDLE_NAMESPACE, symbolicName,
-                        bundle.getVersion());
-                    if (hasWireMatchingFilter(requireBundleWires, map)) {
-                        return true;
-                    }
-                }
+        // then check if any of the required bundles is a wicket bundle
+        for (BundleWire bundleWire : bundleWiring.getRequiredWires(OSGI_WIRING_BUNDLE_NAMESPACE)) {
+            String symbolicName = bundleWire.getProvider().getSymbolicName();
+            if (symbolicName != null && symbolicName.startsWith(APACHE_WICKET_NAMESPACE)) {
+                return true;
             }
         }
         return false;
@@ -171,13 +196,18 @@ public class ExtendedBundle {
     public boolean isImportingPAXWicketAPI() {
         // Check if there is a package wiring (either static or dynamic)
         BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
-        boolean hasPackageImport =
-            hasWireMatchingFilter(bundleWiring.getRequiredWires(OSGI_WIRING_PACKAGE_NAMESPACE),
-                bundleContext.importPAXWicketAPI);
-        // check if there is an require bundle wire...
-        return hasPackageImport || hasWireMatchingFilter(
-            bundleWiring.getRequiredWires(OSGI_WIRING_BUNDLE_NAMESPACE),
-            bundleContext.requirePAXWicketBundle);
+        List<BundleWire> importPackageWires = bundleWiring.getRequiredWires(OSGI_WIRING_PACKAGE_NAMESPACE);
+        WiringAnalysis analysis = bundleContext.getWiringAnalysis(bundleWiring, importPackageWires.size());
+        Boolean importingPAXWicketAPI = analysis.importingPAXWicketAPI;
+        if (importingPAXWicketAPI == null) {
+            boolean hasPackageImport = hasWireMatchingFilter(importPackageWires, bundleContext.importPAXWicketAPI);
+            // check if there is an require bundle wire...
+            importingPAXWicketAPI = hasPackageImport || hasWireMatchingFilter(
+                bundleWiring.getRequiredWires(OSGI_WIRING_BUNDLE_NAMESPACE),
+                bundleContext.requirePAXWicketBundle);
+            analysis.importingPAXWicketAPI = importingPAXWicketAPI;
+        }
+        return importingPAXWicketAPI;
     }
 
     private boolean hasWireMatchingFilter(List<BundleWire> wires, Map<String, ?> map) {
@@ -192,66 +222,71 @@ public class ExtendedBundle {
     }
 
     /**
-     * Try to load a Collection of all classes conained in the underlying bundle, please be aware that calling this has
-     * the following implications:
-     * <ul>
-     * <li>it might be costly to call this method and invloves loading all class from the underlying bundle what might
-     * trigger other bundles with lazy activation to activate</li>
-     * <li>it can't be garantueed that all classes are found</li>
-     * <li>even if a class is detected it might not be included if it's optional dependencies are not already bound to
-     * the bundle</li>
-     * </ul>
+     * Loads the classes of the underlying bundle which are annotated with {@link PaxWicketMountPoint}. They are taken
+     * from the pax-wicket index of the bundle if present, otherwise the class files are read to find the annotation.
+     * The index only covers the classes in the root of the bundle, so the other entries of its class path (e.g.
+     * embedded jars) are read anyway. Either way only the annotated classes are actually loaded. Still a class is not
+     * included if it's optional dependencies are not bound to the bundle. The classes are only looked up once per instance.
      * 
-     * @return a Collection of classes conained in this bundle
+     * @return a Collection of the annotated classes contained in this bundle
      */
-    public Collection<Class<?>> getAllClasses() {
+    public Collection<Class<?>> getMountPointClasses() {
+        Collection<Class<?>> classes = mountPointClasses;
+        if (classes == null) {
+            classes = Collections.unmodifiableCollection(loadMountPointClasses());
+            mountPointClasses = classes;
+        }
+        return classes;
+    }
+
+    private Collection<Class<?>> loadMountPointClasses() {
         Set<Class<?>> classList = new HashSet<Class<?>>();
-        Collection<String> resources = bundle.adapt(BundleWiring.class).listResources("/", "*.class",
-                BundleWiring.FINDENTRIES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL);
-        if (resources != null) {
-            for (String resource : resources) {
-                if (resource.charAt(0) == '/') {
-                    resource = resource.substring(1);
-                }
-                String className = resource.substring(0, resource.length() - 6).replaceAll("/", ".");
-                Class<?> candidateClass = null;
-                try {
-                    candidateClass = loadCandidate(className);
-                } catch (NoClassDefFoundError e) {
-                    // Its not nice to catch errors, but otherwhise we can't give a nice feedback!
-                    String message = e.getMessage();
-                    if (message != null) {
-                        // In eclipse, the entry for a class is prepend by the "bin-output-folder" (e.g.
-                        // bin/my/package/MyClass.class
-                        // If we detect this, try to load the real classname that is mentiened in the message
-                        Pattern pattern = Pattern.compile("\\(wrong name: (.+)\\)");
-                        Matcher matcher = pattern.matcher(message);
-                        if (matcher.find()) {
-                            String realname = matcher.group(1);
-                            LOGGER.debug("It seems the entry has a misleading name for class {}, retry with name {}",
-                                className, realname);
-                            candidateClass = loadCandidate(realname.replace('/', '.'));
-                        }
-                    }
-                    if (candidateClass == null) {
-                        LOGGER.debug("classloader complains about NoClassDefFoundError while try to load {}",
-                            className, e);
-                    }
-                }
-                if (candidateClass != null) {
-                    classList.add(candidateClass);
-                } else {
-                    LOGGER
-                        .warn(
-                            "Class '{}' was found via bundle {}'s resource path, but classloader can't load it (is the jar file corrupted or a dependant optional dependencies not resolved?)",
-                            getBundle().getSymbolicName(),
-                            className);
-                }
+        BundleContentIndex index = BundleContentIndex.read(bundle);
+        Collection<String> classNames;
+        if (index != null) {
+            classNames = new ArrayList<String>(index.getMountPointClasses());
+            classNames.addAll(BundleScanCache.getScanResult(bundle, MOUNT_POINT_CLASS_PATH_SCAN,
+                MOUNT_POINT_CLASS_PATH_SCANNER));
+        } else {
+            classNames = BundleScanCache.getScanResult(bundle, MOUNT_POINT_SCAN, MOUNT_POINT_CLASS_SCANNER);
+        }
+        for (String className : classNames) {
+            Class<?> candidateClass = null;
+            try {
+                candidateClass = loadCandidate(className);
+            } catch (NoClassDefFoundError e) {
+                // Its not nice to catch errors, but otherwhise we can't give a nice feedback!
+                LOGGER.debug("classloader complains about NoClassDefFoundError while try to load {}", className, e);
+            }
+            if (candidateClass != null) {
+                classList.add(candidateClass);
+            } else {
+                LOGGER
+                    .warn(
+                        "Class '{}' was found via bundle {}'s resource path, but classloader can't load it (is the jar file corrupted or a dependant optional dependencies not resolved?)",
+                        className,
+                        getBundle().getSymbolicName());
             }
         }
         return classList;
     }
 
+    private static final class MountPointClassScanner implements BundleScanner {
+
+        public Collection<String> scan(Bundle bundle) {
+            return MOUNT_POINT_SCANNER.findAnnotatedClasses(bundle);
+        }
+
+    }
+
+    private static final class MountPointClassPathScanner implements BundleScanner {
+
+        public Collection<String> scan(Bundle bundle) {
+            return MOUNT_POINT_SCANNER.findAnnotatedClassPathClasses(bundle);
+        }
+
+    }
+
     /**
      * @param className
      * @param bundleToScan
@@ -269,12 +304,50 @@ public class ExtendedBundle {
         }
     }
 
+    /**
+     * The results of analysing the wires of a bundle wiring. Dynamic imports may add package wires to a wiring later
+     * on, so an analysis is only valid for the number of package wires it was created for.
+     */
+    private static final class WiringAnalysis {
+
+        private final int packageWireCount;
+        private volatile Boolean importingWicket;
+        private volatile Boolean importingPAXWicketAPI;
+
+        private WiringAnalysis(int packageWireCount) {
+            this.packageWireCount = packageWireCount;
+        }
+    }
+
     public static class ExtendedBundleContext {
 
+        private static final int MAX_CACHED_FILTERS = 256;
+
         private final Map<String, Object> importPAXWicketAPI;
         private final BundleContext paxBundleContext;
         private final Map<String, Object> requirePAXWicketBundle;
 
+        /**
+         * The analysed wirings, the same bundle is looked at by the weaving hook, the bundle tracker and the page
+         * mounter. Wirings of uninstalled or refreshed bundles are dropped by the garbage collector.
+         */
+        private final Map<BundleWiring, WiringAnalysis> wiringAnalyses =
+            Collections.synchronizedMap(new WeakHashMap<BundleWiring, WiringAnalysis>());
+
+        /**
+         * Most requirements use the same few filter directives, so the compiled filters are kept (least recently used
+         * ones are dropped first).
+         */
+        private final Map<String, Filter> filters = Collections.synchronizedMap(
+            new LinkedHashMap<String, Filter>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+                    return size() > MAX_CACHED_FILTERS;
+                }
+            });
+
         public ExtendedBundleContext(BundleContext paxBundleContext) {
             this.requirePAXWicketBundle =
                 createMapWithVersion(OSGI_WIRING_BUNDLE_NAMESPACE, paxBundleContext.getBundle().getSymbolicName(),
@@ -285,6 +358,17 @@ public class ExtendedBundle {
             this.paxBundleContext = paxBundleContext;
         }
 
+        private WiringAnalysis getWiringAnalysis(BundleWiring bundleWiring, int packageWireCount) {
+            synchronized (wiringAnalyses) {
+                WiringAnalysis analysis = wiringAnalyses.get(bundleWiring);
+                if (analysis == null || analysis.packageWireCount != packageWireCount) {
+                    analysis = new WiringAnalysis(packageWireCount);
+                    wiringAnalyses.put(bundleWiring, analysis);
+                }
+                return analysis;
+            }
+        }
+
         /**
          * @param filterString
          * @param map
@@ -293,7 +377,11 @@ public class ExtendedBundle {
         public boolean matchFilter(String filterString, Map<String, ?> map) {
             if (filterString != null) {
                 try {
-                    Filter filter = paxBundleContext.createFilter(filterString);
+                    Filter filter = filters.get(filterString);
+                    if (filter == null) {
+                        filter = paxBundleContext.createFilter(filterString);
+                        filters.put(filterString, filter);
+                    }
                     if (filter.matches(map)) {
                         LOGGER.trace("filter = {} matches {}", importPAXWicketAPI);
                         return true;
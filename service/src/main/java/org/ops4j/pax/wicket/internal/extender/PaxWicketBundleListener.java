@@ -15,7 +15,14 @@
  */
 package org.ops4j.pax.wicket.internal.extender;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle.ExtendedBundleContext;
+import org.ops4j.pax.wicket.internal.util.KeyedSerialExecutor;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -23,26 +30,67 @@ import org.osgi.util.tracker.BundleTrackerCustomizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Decides which bundles are relevant for pax wicket. Adding and removing the relevant bundles to the applications
+ * involves scanning and class loading, so it is done by the given executor instead of the thread delivering the bundle
+ * event. The mount points of arriving bundles are looked up in parallel; the changes are then collected for a short
+ * time and handed to the applications as one batch, so installing many bundles at once (e.g. a feature) doesn't
+ * update every application once per bundle. The changes of a single bundle are applied in order.
+ *
+ * The batches are applied one after the other, one application after the other, while the mount points of the next
+ * batch can already be looked up. Applying a batch to the applications in parallel would need a lock per application
+ * in {@link BundleDelegatingExtensionTracker}; as a batch only registers services and updates indexes it's cheap
+ * compared to the scanning done in parallel.
+ */
 public class PaxWicketBundleListener implements BundleTrackerCustomizer<ExtendedBundle> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketBundleListener.class);
 
+    /**
+     * How long bundle changes are collected after the first change of a batch.
+     */
+    private static final long BATCH_WINDOW_MILLIS = 100;
+
+    private static final Object BATCH_KEY = new Object();
+
     private final BundleDelegatingExtensionTracker bundleDelegatingExtensionTracker;
 
     private final ExtendedBundleContext extendedBundleContext;
 
+    private final KeyedSerialExecutor executor;
+
+    private final Object batchLock = new Object();
+
+    /**
+     * Keyed by bundle id, different versions of a bundle may be installed at the same time.
+     */
+    private Map<Long, PendingChange> pendingChanges = new LinkedHashMap<Long, PendingChange>();
+
+    private boolean batchScheduled;
+
     public PaxWicketBundleListener(BundleContext paxBundleContext,
-            BundleDelegatingExtensionTracker bundleDelegatingExtensionTracker) {
+            BundleDelegatingExtensionTracker bundleDelegatingExtensionTracker, KeyedSerialExecutor executor) {
         this.bundleDelegatingExtensionTracker = bundleDelegatingExtensionTracker;
+        this.executor = executor;
         extendedBundleContext = new ExtendedBundle.ExtendedBundleContext(paxBundleContext);
     }
 
-    public ExtendedBundle addingBundle(Bundle bundle, BundleEvent event) {
-        ExtendedBundle extendedBundle =
+    public ExtendedBundle addingBundle(final Bundle bundle, BundleEvent event) {
+        final ExtendedBundle extendedBundle =
             new ExtendedBundle(extendedBundleContext, bundle);
         if (extendedBundle.isImportingPAXWicketAPI() || extendedBundle.isImportingWicket()) {
-            bundleDelegatingExtensionTracker.addRelevantBundle(extendedBundle);
-            LOGGER.info("{} is added as a relevant bundle for pax wicket", bundle.getSymbolicName());
+            executor.execute(bundle.getBundleId(), new Runnable() {
+                public void run() {
+                    try {
+                        // loaded once here, the applications of the batch share the classes
+                        if (extendedBundle.isRelevantForMountPointAnnotations()) {
+                            extendedBundle.getMountPointClasses();
+                        }
+                    } finally {
+                        addPendingChange(extendedBundle, true);
+                    }
+                }
+            });
             return extendedBundle;
         } else {
             // No need to track this...
@@ -54,9 +102,81 @@ public class PaxWicketBundleListener implements BundleTrackerCustomizer<Extended
         // we don't care about state changes (for now)
     }
 
-    public void removedBundle(Bundle bundle, BundleEvent event, ExtendedBundle object) {
-        bundleDelegatingExtensionTracker.removeRelevantBundle(object);
-        LOGGER.debug("{} is removed as a relevant bundle for pax wicket", bundle.getSymbolicName());
+    public void removedBundle(final Bundle bundle, BundleEvent event, final ExtendedBundle object) {
+        // queued behind the pending work of the bundle, so a removal never overtakes the addition
+        executor.execute(bundle.getBundleId(), new Runnable() {
+            public void run() {
+                addPendingChange(object, false);
+            }
+        });
+    }
+
+    private void addPendingChange(ExtendedBundle bundle, boolean added) {
+        synchronized (batchLock) {
+            Long bundleId = bundle.getBundle().getBundleId();
+            PendingChange change = pendingChanges.get(bundleId);
+            if (change == null) {
+                change = new PendingChange();
+                pendingChanges.put(bundleId, change);
+            }
+            if (added) {
+                change.added = bundle;
+            } else if (change.added != null) {
+                // the applications never got to see this one
+                change.added = null;
+            } else {
+                change.removed = bundle;
+            }
+            if (batchScheduled) {
+                return;
+            }
+            batchScheduled = true;
+        }
+        executor.execute(BATCH_KEY, new Runnable() {
+            public void run() {
+                applyPendingChanges();
+            }
+        }, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void applyPendingChanges() {
+        Map<Long, PendingChange> changes;
+        synchronized (batchLock) {
+            changes = pendingChanges;
+            pendingChanges = new LinkedHashMap<Long, PendingChange>();
+            batchScheduled = false;
+        }
+        List<ExtendedBundle> removedBundles = new ArrayList<ExtendedBundle>();
+        List<ExtendedBundle> addedBundles = new ArrayList<ExtendedBundle>();
+        for (PendingChange change : changes.values()) {
+            if (change.removed != null) {
+                removedBundles.add(change.removed);
+            }
+            if (change.added != null) {
+                addedBundles.add(change.added);
+            }
+        }
+        if (removedBundles.isEmpty() && addedBundles.isEmpty()) {
+            return;
+        }
+        bundleDelegatingExtensionTracker.updateRelevantBundles(removedBundles, addedBundles);
+        for (ExtendedBundle bundle : removedBundles) {
+            LOGGER.debug("{} is removed as a relevant bundle for pax wicket", bundle.getBundle().getSymbolicName());
+        }
+        for (ExtendedBundle bundle : addedBundles) {
+            LOGGER.info("{} is added as a relevant bundle for pax wicket", bundle.getBundle().getSymbolicName());
+        }
+    }
+
+    /**
+     * The net change of a bundle within the current batch; an updated bundle is removed and added again.
+     */
+    private static final class PendingChange {
+
+        private ExtendedBundle removed;
+
+        private ExtendedBundle added;
+
     }
 
 }
@@ -19,8 +19,9 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -40,13 +41,26 @@ public final class FilterDelegator {
     private static final Logger LOGGER = LoggerFactory.getLogger(FilterDelegator.class);
 
     private final ServiceTracker<FilterFactory, FilterFactoryReference> filterTracker;
+    private final FilterTrackerCustomizer customizer;
     private final String applicationName;
 
+    /**
+     * Incremented for every change of the tracked filter factories, a {@link CompiledFilters} is only valid for the
+     * generation it was created for.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile CompiledFilters compiledFilters;
+
     private Servlet servlet;
 
     public FilterDelegator(BundleContext context, String applicationName) {
         this.applicationName = applicationName;
-        FilterTrackerCustomizer customizer = new FilterTrackerCustomizer(context, applicationName);
+        customizer = new FilterTrackerCustomizer(context, applicationName, new Runnable() {
+            public void run() {
+                generation.incrementAndGet();
+                compiledFilters = null;
+            }
+        });
         filterTracker =
             new ServiceTracker<FilterFactory, FilterFactoryReference>(context, customizer.createOsgiFilter(),
                 customizer);
@@ -72,22 +86,32 @@ public final class FilterDelegator {
 
     public void doFilter(Filter[] superFilter, ServletRequest servletRequest, ServletResponse servletResponse)
         throws ServletException, IOException {
-        List<Filter> filters = new ArrayList<Filter>();
-        if (superFilter != null && superFilter.length > 0) {
-            // First add all superfilter...
-            filters.addAll(Arrays.asList(superFilter));
-        }
-        List<Filter> filterList = getFiltersSortedWithHighestPriorityAsFirstFilter(filters, servlet.getServletConfig());
-        FilterChain chain = new PAXWicketFilterChain(filterList, servlet);
+        FilterChain chain = new PAXWicketFilterChain(superFilter, getFilters(servlet.getServletConfig()), servlet);
         chain.doFilter(servletRequest, servletResponse);
     }
 
-    private List<Filter> getFiltersSortedWithHighestPriorityAsFirstFilter(List<Filter> filters,
-            ServletConfig servletConfig) {
-        FilterFactoryReference[] factories = filterTracker.getServices(new FilterFactoryReference[0]);
-        if (factories != null && factories.length > 0) {
-            LOGGER.debug("Retrieved {} factories to create filters to apply", factories.length);
-            Arrays.sort(factories);
+    /**
+     * @return the filters of all filter factories, highest priority first; they are only created again if the filter
+     *         factories changed since the last call
+     */
+    private Filter[] getFilters(ServletConfig servletConfig) {
+        CompiledFilters current = compiledFilters;
+        if (current != null && current.generation == generation.get() && current.servletConfig == servletConfig) {
+            return current.filters;
+        }
+        int currentGeneration = generation.get();
+        Filter[] filters = getFiltersSortedWithHighestPriorityAsFirstFilter(servletConfig);
+        compiledFilters = new CompiledFilters(currentGeneration, servletConfig, filters);
+        return filters;
+    }
+
+    private Filter[] getFiltersSortedWithHighestPriorityAsFirstFilter(ServletConfig servletConfig) {
+        List<FilterFactoryReference> factories =
+            new ArrayList<FilterFactoryReference>(customizer.getFilterFactoryReferences());
+        List<Filter> filters = new ArrayList<Filter>(factories.size());
+        if (!factories.isEmpty()) {
+            LOGGER.debug("Retrieved {} factories to create filters to apply", factories.size());
+            Collections.sort(factories);
             for (FilterFactoryReference filterFactory : factories) {
                 try {
                     filters.add(filterFactory.getFilter(servletConfig));
@@ -98,7 +122,7 @@ public final class FilterDelegator {
                 }
             }
         }
-        return filters;
+        return filters.toArray(new Filter[filters.size()]);
     }
 
     public void setServlet(Servlet servlet) {
@@ -106,4 +130,20 @@ public final class FilterDelegator {
         this.servlet = servlet;
     }
 
+    /**
+     * The sorted filters created for a generation of filter factories and a servlet config.
+     */
+    private static final class CompiledFilters {
+
+        private final int generation;
+        private final ServletConfig servletConfig;
+        private final Filter[] filters;
+
+        private CompiledFilters(int generation, ServletConfig servletConfig, Filter[] filters) {
+            this.generation = generation;
+            this.servletConfig = servletConfig;
+            this.filters = filters;
+        }
+    }
+
 }
@@ -20,6 +20,11 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
 import org.ops4j.pax.wicket.api.FilterFactory;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
@@ -39,11 +44,38 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
 
     private final BundleContext bundleContext;
 
+    private final Runnable changeListener;
+
+    private final Set<FilterFactoryReference> references = new CopyOnWriteArraySet<FilterFactoryReference>();
+
     public FilterTrackerCustomizer(BundleContext bundleContext, String applicationName) {
+        this(bundleContext, applicationName, null);
+    }
+
+    /**
+     * @param changeListener called after a filter factory had been added, modified or removed; might be
+     *        <code>null</code>
+     */
+    public FilterTrackerCustomizer(BundleContext bundleContext, String applicationName, Runnable changeListener) {
         validateNotNull(bundleContext, "bundleContext");
         validateNotEmpty(applicationName, "applicationName");
         this.bundleContext = bundleContext;
         this.applicationName = applicationName;
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * @return all {@link FilterFactoryReference}s currently tracked; in contrast to the tracker itself a reference is
+     *         already contained when the change listener is informed about it
+     */
+    public Collection<FilterFactoryReference> getFilterFactoryReferences() {
+        return Collections.unmodifiableSet(references);
+    }
+
+    private void fireChanged() {
+        if (changeListener != null) {
+            changeListener.run();
+        }
     }
 
     public final FilterFactoryReference addingService(ServiceReference<FilterFactory> reference) {
@@ -52,6 +84,8 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
             FilterFactoryReference factoryReference = new FilterFactoryReference(filterFactory);
             LOGGER.debug("added FilterFactory {} for application {}", filterFactory.getClass().getName(),
                 applicationName);
+            references.add(factoryReference);
+            fireChanged();
             return factoryReference;
         }
         return null;
@@ -63,10 +97,13 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
             LOGGER.debug("updated FilterFactory {} for application {}", service.getFactory().getClass().getName(),
                 applicationName);
         }
+        fireChanged();
     }
 
     public void removedService(ServiceReference<FilterFactory> reference, FilterFactoryReference service) {
         bundleContext.ungetService(reference);
+        references.remove(service);
+        fireChanged();
         if (service != null) {
             service.dispose();
             LOGGER.debug("removed filterFactory for application {}", applicationName);
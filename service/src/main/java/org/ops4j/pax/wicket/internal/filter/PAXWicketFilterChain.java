@@ -16,7 +16,6 @@
 package org.ops4j.pax.wicket.internal.filter;
 
 import java.io.IOException;
-import java.util.List;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -30,26 +29,45 @@ import org.slf4j.LoggerFactory;
 
 /**
  * The {@link PAXWicketFilterChain} is responsible for dispatching registered filters if applicable and finally to the
- * {@link Servlet} if all filters are respected
+ * {@link Servlet} if all filters are respected. The chain only walks the given arrays by index, the arrays itself are
+ * shared between requests and never modified.
  */
 public class PAXWicketFilterChain implements FilterChain {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PAXWicketFilterChain.class);
 
+    private static final Filter[] NO_FILTERS = new Filter[0];
+
     private int filterIndex = 0;
-    private final List<Filter> filters;
+    private final Filter[] leadingFilters;
+    private final Filter[] filters;
 
     private final Servlet delegateServlet;
 
-    public PAXWicketFilterChain(List<Filter> filter, Servlet delegateServlet) {
-        filters = filter;
+    public PAXWicketFilterChain(Filter[] filters, Servlet delegateServlet) {
+        this(null, filters, delegateServlet);
+    }
+
+    /**
+     * @param leadingFilters filters called before the other filters, might be <code>null</code>
+     * @param filters the filters to call afterwards, might be <code>null</code>
+     * @param delegateServlet the servlet called at the end of the chain
+     */
+    public PAXWicketFilterChain(Filter[] leadingFilters, Filter[] filters, Servlet delegateServlet) {
+        this.leadingFilters = leadingFilters != null ? leadingFilters : NO_FILTERS;
+        this.filters = filters != null ? filters : NO_FILTERS;
         this.delegateServlet = delegateServlet;
     }
 
     public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
-        int size = filters.size();
+        int size = leadingFilters.length + filters.length;
         if (filterIndex < size) {
-            Filter filter = filters.get(filterIndex);
+            Filter filter;
+            if (filterIndex < leadingFilters.length) {
+                filter = leadingFilters[filterIndex];
+            } else {
+                filter = filters[filterIndex - leadingFilters.length];
+            }
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("call filter {}/{} of type {} ", new Object[]{ (filterIndex + 1), size,
                     filter.getClass().getName() });
@@ -20,9 +20,16 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +39,10 @@ import net.sf.cglib.proxy.Factory;
 
 import org.ops4j.pax.wicket.api.PaxWicketBeanAllowNull;
 import org.ops4j.pax.wicket.api.PaxWicketBeanInjectionSource;
+import org.ops4j.pax.wicket.internal.util.BundleContentIndex;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache;
+import org.ops4j.pax.wicket.internal.util.BundleScanCache.BundleScanner;
+import org.ops4j.pax.wicket.spi.FieldInjector;
 import org.ops4j.pax.wicket.spi.OverwriteProxy;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocator;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
@@ -39,6 +50,7 @@ import org.ops4j.pax.wicket.util.proxy.LazyInitProxyFactory;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleReference;
+import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,42 +62,115 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
      */
     private static final ProxyTargetLocatorFactory[] EMPTY_ARRAY = new ProxyTargetLocatorFactory[0];
 
+    /**
+     * Prefix added by the naming policy of the {@link LazyInitProxyFactory}.
+     */
+    private static final String GENERATED_CLASS_PREFIX = "WICKET_";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleAnalysingComponentInstantiationListener.class);
 
+    private static final String CONTAINED_CLASSES_SCAN = "classes";
+
+    private static final BundleScanner CONTAINED_CLASSES_SCANNER = new ContainedClassesScanner();
+
     private final BundleContext bundleContext;
-    private String bundleResources = "";
+    /**
+     * Listed on first use, the bundle is not read or scanned as long as no component is created.
+     */
+    private volatile Set<String> containedClasses;
     private final String defaultInjectionSource;
 
     private final ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> tracker;
 
+    private final ConcurrentMap<Class<?>, InjectionPlan> injectionPlans =
+        new ConcurrentHashMap<Class<?>, InjectionPlan>();
+
     public BundleAnalysingComponentInstantiationListener(BundleContext bundleContext, String defaultInjectionSource,
             ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> tracker) {
         this.bundleContext = bundleContext;
         this.defaultInjectionSource = defaultInjectionSource;
         this.tracker = tracker;
-        // TODO use ExtendedBundle instead
-        Enumeration<URL> entries = bundleContext.getBundle().findEntries("/", "*.class", true);
+    }
+
+    private Set<String> getContainedClasses() {
+        Set<String> classes = containedClasses;
+        if (classes == null) {
+            // listing the classes twice in a race is harmless
+            classes = Collections.unmodifiableSet(listContainedClasses(bundleContext.getBundle()));
+            containedClasses = classes;
+        }
+        return classes;
+    }
+
+    /**
+     * @return the binary names of all classes contained in the bundle itself (imported classes are not included); if
+     *         the bundle was built with the pax-wicket index only the classes declaring fields to inject are listed
+     */
+    private static Set<String> listContainedClasses(Bundle bundle) {
+        BundleContentIndex index = BundleContentIndex.read(bundle);
+        if (index != null) {
+            return new HashSet<String>(index.getInjectClasses());
+        }
+        if (bundle.adapt(BundleWiring.class) != null) {
+            return new HashSet<String>(BundleScanCache.getScanResult(bundle, CONTAINED_CLASSES_SCAN,
+                CONTAINED_CLASSES_SCANNER));
+        }
+        // not resolved yet, fall back to the raw entries of the bundle
+        Set<String> classNames = new HashSet<String>();
+        Enumeration<URL> entries = bundle.findEntries("/", "*.class", true);
         if (entries == null) {
             // bundle with no .class files (see PAXWICKET-305)
-            return;
+            return classNames;
         }
         while (entries.hasMoreElements()) {
-            String urlRepresentation =
-                entries.nextElement().toExternalForm().replace("bundle://.+?/", "").replace('/', '.');
-            LOGGER.trace("Found entry {} in bundle {}", urlRepresentation, bundleContext.getBundle().getSymbolicName());
-            bundleResources += urlRepresentation;
+            classNames.add(toClassName(entries.nextElement().getPath()));
+        }
+        return classNames;
+    }
+
+    private static final class ContainedClassesScanner implements BundleScanner {
+
+        public Collection<String> scan(Bundle bundle) {
+            Collection<String> classNames = new ArrayList<String>();
+            Collection<String> resources = bundle.adapt(BundleWiring.class).listResources("/", "*.class",
+                BundleWiring.LISTRESOURCES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL);
+            if (resources != null) {
+                for (String resource : resources) {
+                    classNames.add(toClassName(resource));
+                }
+            }
+            return classNames;
         }
+
+    }
+
+    private static String toClassName(String resource) {
+        int start = resource.charAt(0) == '/' ? 1 : 0;
+        return resource.substring(start, resource.length() - ".class".length()).replace('/', '.');
     }
 
     public boolean injectionPossible(Class<?> component) {
         String name = component.getName();
         LOGGER.debug("Try to find class {} in bundle {}", name, bundleContext.getBundle().getSymbolicName());
-        String searchString = name.replaceAll("\\$\\$.*", "");
-        searchString = searchString.replaceAll("\\$", "\\\\\\$"); // for nested and anonymous classes
-        if (bundleResources.matches(".*" + searchString + ".*")) {
+        // generated subclasses (e.g. Foo$$EnhancerByCGLIB$$1234) belong to the bundle of the enhanced class
+        int generatedSuffix = name.indexOf("$$");
+        if (generatedSuffix > 0) {
+            name = name.substring(0, generatedSuffix);
+            if (name.startsWith(GENERATED_CLASS_PREFIX)) {
+                name = name.substring(GENERATED_CLASS_PREFIX.length());
+            }
+        }
+        if (getContainedClasses().contains(name)) {
             LOGGER.trace("Found class {} in bundle {}", name, bundleContext.getBundle().getSymbolicName());
             return true;
         }
+        // e.g. anonymous classes which are not part of the index, but are defined by the bundle itself
+        ClassLoader classLoader = component.getClassLoader();
+        if (classLoader instanceof BundleReference
+                && bundleContext.getBundle().equals(((BundleReference) classLoader).getBundle())) {
+            LOGGER.trace("Class {} is defined by bundle {}", name, bundleContext.getBundle().getSymbolicName());
+            return true;
+        }
         LOGGER.trace("Class {} not available in bundle {}", name, bundleContext.getBundle().getSymbolicName());
         return false;
     }
@@ -108,27 +193,25 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
             Thread.currentThread().setContextClassLoader(realClass.getClassLoader());
 
-            List<Field> fields = getSingleLevelOfFields(realClass);
-            for (Field field : fields) {
-                if (!field.isAnnotationPresent(Inject.class)) {
-                    continue;
-                }
-                PaxWicketBeanInjectionSource annotation = field.getAnnotation(PaxWicketBeanInjectionSource.class);
-                if (annotation != null && annotation.value() != null && !annotation.value().isEmpty()) {
-                    injectionSource = annotation.value();
+            InjectionPlan plan = getInjectionPlan(realClass);
+            for (InjectionPoint injectionPoint : plan.injectionPoints) {
+                Field field = injectionPoint.field;
+                if (injectionPoint.injectionSource != null) {
+                    injectionSource = injectionPoint.injectionSource;
                 }
                 Object value;
-                if (field.getType().equals(BundleContext.class)) {
+                if (injectionPoint.kind == InjectionKind.BUNDLE_CONTEXT) {
                     // Is this the special BundleContext type?
                     value = injectBundleContext(realClass, field);
-                } else if (field.getType().equals(Future.class)) {
-                    value = injectFuture(field, realClass, overwrites, injectionSource);
+                } else if (injectionPoint.kind == InjectionKind.FUTURE) {
+                    ProxyTargetLocator locator =
+                        createProxyTargetLocator(injectionPoint, realClass, overwrites, injectionSource, true);
+                    value = InjectionFuture.create(injectionPoint.beanType, locator);
                 } else {
                     ProxyTargetLocator locator =
-                        createProxyTargetLocator(field, getBeanType(field), realClass, overwrites, injectionSource,
-                            false);
+                        createProxyTargetLocator(injectionPoint, realClass, overwrites, injectionSource, false);
                     if (locator != null) {
-                        Object proxy = LazyInitProxyFactory.createProxy(getBeanType(field),
+                        Object proxy = LazyInitProxyFactory.createProxy(injectionPoint.beanType,
                             locator);
                         value = proxy;
                     } else {
@@ -140,26 +223,35 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
                         throw new IllegalStateException("The primitive field " + field.getName()
                                 + " is not allowed to be set to null");
                     }
-                    if (field.getAnnotation(PaxWicketBeanAllowNull.class) == null) {
+                    if (!injectionPoint.allowNull) {
                         throw new IllegalStateException("The field " + field.getName()
                                 + " is not allowed to be set to null, but value for injection was finally a null value");
                     }
                 }
-                setField(component, field, value);
+                if (injectionPoint.fieldInjectorIndex >= 0) {
+                    plan.fieldInjector.setField(component, injectionPoint.fieldInjectorIndex, value);
+                } else {
+                    setField(component, field, value);
+                }
             }
         } finally {
             Thread.currentThread().setContextClassLoader(currentClassLoader);
         }
     }
 
-    private Future<?> injectFuture(Field field, final Class<?> page,
-            Map<String, String> overwrites,
-            String injectionSource) {
-        Class<?> realClass = getGenericTypeArgument(field);
-        ProxyTargetLocator locator =
-                        createProxyTargetLocator(field, realClass, page, overwrites, injectionSource, true);
-        return InjectionFuture.create(realClass, locator);
-
+    /**
+     * Returns the analysed {@link Inject} fields of a single level of the class hierarchy. Plans are rebuilt as soon as
+     * the set of {@link ProxyTargetLocatorFactory} services changed since the factories chosen for the fields are part
+     * of the plan.
+     */
+    private InjectionPlan getInjectionPlan(Class<?> realClass) {
+        int trackingCount = tracker.getTrackingCount();
+        InjectionPlan plan = injectionPlans.get(realClass);
+        if (plan == null || plan.trackingCount != trackingCount) {
+            plan = new InjectionPlan(trackingCount, realClass, getSingleLevelOfFields(realClass), plan);
+            injectionPlans.put(realClass, plan);
+        }
+        return plan;
     }
 
     /**
@@ -209,9 +301,26 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
         }
     }
 
-    private ProxyTargetLocator createProxyTargetLocator(Field field, Class<?> realFieldType, final Class<?> page,
-            Map<String, String> overwrites,
-            String injectionSource, boolean returnFutureLocators) {
+    private ProxyTargetLocator createProxyTargetLocator(InjectionPoint injectionPoint, final Class<?> page,
+            Map<String, String> overwrites, String injectionSource, boolean returnFutureLocators) {
+        if (overwrites == null) {
+            // overwrites are bound to a single component instance, otherwise the result only depends on the field
+            FactoryChoice choice = injectionPoint.factoryChoice;
+            if (choice != null && choice.isApplicable(injectionSource)) {
+                try {
+                    ProxyTargetLocator locator =
+                        createProxyTargetLocator(choice.factory, injectionPoint, page, overwrites,
+                            returnFutureLocators);
+                    if (locator != null) {
+                        return locator;
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.debug("Previously chosen ProxyTargetLocatorFactory {} failed, asking all factories",
+                        choice.factory.getName(), e);
+                }
+            }
+        }
+        Field field = injectionPoint.field;
         ProxyTargetLocatorFactory[] factories = tracker.getServices(EMPTY_ARRAY);
         if (factories.length == 0) {
             // If no factories are present we will wait for 5 seconds for at least one
@@ -223,6 +332,7 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
         }
         List<ProxyTargetLocator> locators = new ArrayList<ProxyTargetLocator>(1);
+        ProxyTargetLocatorFactory chosenFactory = null;
         for (ProxyTargetLocatorFactory factory : factories) {
             if (factory == null) {
                 continue;
@@ -231,16 +341,12 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
                     || PaxWicketBeanInjectionSource.INJECTION_SOURCE_SCAN.equals(injectionSource)) {
                 try {
                     // We consider this factory...
-                    ProxyTargetLocator locator;
-                    if (returnFutureLocators
-                            && factory instanceof ProxyTargetLocatorFactory.DelayableProxyTargetLocatorFactory) {
-                        locator = ((ProxyTargetLocatorFactory.DelayableProxyTargetLocatorFactory) factory)
-                                .createFutureProxyTargetLocator(bundleContext, field, realFieldType, page, overwrites);
-                    } else {
-                        locator =
-                            factory.createProxyTargetLocator(bundleContext, field, page, overwrites);
-                    }
+                    ProxyTargetLocator locator =
+                        createProxyTargetLocator(factory, injectionPoint, page, overwrites, returnFutureLocators);
                     if (locator != null) {
+                        if (locators.isEmpty()) {
+                            chosenFactory = factory;
+                        }
                         locators.add(locator);
                     }
 
@@ -252,7 +358,7 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
         }
         if (locators.isEmpty()) {
-            if (field.getAnnotation(PaxWicketBeanAllowNull.class) != null) {
+            if (injectionPoint.allowNull) {
                 return null;
             } else {
                 throw new IllegalStateException(
@@ -268,11 +374,26 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
                         "More than one injection source could be considered for field [{}] in class [{}] to archive consistent behaviour use an explicit injection source",
                         field.getName(), page.getName());
             }
+            if (overwrites == null) {
+                injectionPoint.factoryChoice = new FactoryChoice(injectionSource, chosenFactory);
+            }
             return locators.get(0);
         }
 
     }
 
+    private ProxyTargetLocator createProxyTargetLocator(ProxyTargetLocatorFactory factory,
+            InjectionPoint injectionPoint, Class<?> page, Map<String, String> overwrites,
+            boolean returnFutureLocators) {
+        if (returnFutureLocators
+                && factory instanceof ProxyTargetLocatorFactory.DelayableProxyTargetLocatorFactory) {
+            return ((ProxyTargetLocatorFactory.DelayableProxyTargetLocatorFactory) factory)
+                .createFutureProxyTargetLocator(bundleContext, injectionPoint.field, injectionPoint.beanType, page,
+                    overwrites);
+        }
+        return factory.createProxyTargetLocator(bundleContext, injectionPoint.field, page, overwrites);
+    }
+
     /**
      * @param factories
      * @return
@@ -295,4 +416,126 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
         return sb;
     }
 
+    private static enum InjectionKind {
+        BUNDLE_CONTEXT, FUTURE, PROXY
+    }
+
+    /**
+     * Looks for the {@link FieldInjector} generated for the class by the pax-wicket annotation processor.
+     * 
+     * @return the companion of the class or <code>null</code> if there is none
+     */
+    private static FieldInjector loadFieldInjector(Class<?> realClass) {
+        ClassLoader classLoader = realClass.getClassLoader();
+        if (classLoader == null) {
+            return null;
+        }
+        String className = realClass.getName();
+        int lastDot = className.lastIndexOf('.');
+        String companionName = className.substring(0, lastDot + 1)
+                + className.substring(lastDot + 1).replace('$', '_') + FieldInjector.COMPANION_SUFFIX;
+        try {
+            Class<?> companion = classLoader.loadClass(companionName);
+            if (!FieldInjector.class.isAssignableFrom(companion)) {
+                LOGGER.warn("Ignoring {} since it is not wired to the FieldInjector of pax-wicket", companionName);
+                return null;
+            }
+            LOGGER.debug("Using generated {} to inject the fields of {}", companionName, className);
+            return (FieldInjector) companion.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (InstantiationException e) {
+            LOGGER.warn("Can't create {}, falling back to reflection", companionName, e);
+            return null;
+        } catch (IllegalAccessException e) {
+            LOGGER.warn("Can't create {}, falling back to reflection", companionName, e);
+            return null;
+        }
+    }
+
+    /**
+     * The {@link Inject} fields declared by one class, analysed once and shared by all instances of the class.
+     */
+    private final class InjectionPlan {
+
+        private final int trackingCount;
+        private final InjectionPoint[] injectionPoints;
+        private final FieldInjector fieldInjector;
+
+        /**
+         * @param previous the outdated plan of the class, if any; the generated companion does not change
+         */
+        private InjectionPlan(int trackingCount, Class<?> realClass, List<Field> fields, InjectionPlan previous) {
+            this.trackingCount = trackingCount;
+            fieldInjector = previous != null ? previous.fieldInjector : loadFieldInjector(realClass);
+            List<String> companionFields = fieldInjector != null ? Arrays.asList(fieldInjector.getFieldNames())
+                    : Collections.<String> emptyList();
+            injectionPoints = new InjectionPoint[fields.size()];
+            for (int i = 0; i < injectionPoints.length; i++) {
+                Field field = fields.get(i);
+                injectionPoints[i] = new InjectionPoint(field, companionFields.indexOf(field.getName()));
+            }
+        }
+    }
+
+    private final class InjectionPoint {
+
+        private final Field field;
+        private final InjectionKind kind;
+        private final Class<?> beanType;
+        private final String injectionSource;
+        private final boolean allowNull;
+        private final int fieldInjectorIndex;
+        private volatile FactoryChoice factoryChoice;
+
+        /**
+         * @param fieldInjectorIndex index of the field within the generated {@link FieldInjector} or <code>-1</code> if
+         *        the field is set by reflection
+         */
+        private InjectionPoint(Field field, int fieldInjectorIndex) {
+            this.field = field;
+            this.fieldInjectorIndex = fieldInjectorIndex;
+            if (fieldInjectorIndex < 0 && !field.isAccessible()) {
+                field.setAccessible(true);
+            }
+            if (field.getType().equals(BundleContext.class)) {
+                kind = InjectionKind.BUNDLE_CONTEXT;
+                beanType = BundleContext.class;
+            } else if (field.getType().equals(Future.class)) {
+                kind = InjectionKind.FUTURE;
+                beanType = getGenericTypeArgument(field);
+            } else {
+                kind = InjectionKind.PROXY;
+                beanType = getBeanType(field);
+            }
+            PaxWicketBeanInjectionSource annotation = field.getAnnotation(PaxWicketBeanInjectionSource.class);
+            if (annotation != null && annotation.value() != null && !annotation.value().isEmpty()) {
+                injectionSource = annotation.value();
+            } else {
+                injectionSource = null;
+            }
+            allowNull = field.getAnnotation(PaxWicketBeanAllowNull.class) != null;
+        }
+    }
+
+    /**
+     * The factory which created the locator of a field the last time, together with the injection source it had been
+     * chosen for.
+     */
+    private static final class FactoryChoice {
+
+        private final String injectionSource;
+        private final ProxyTargetLocatorFactory factory;
+
+        private FactoryChoice(String injectionSource, ProxyTargetLocatorFactory factory) {
+            this.injectionSource = injectionSource;
+            this.factory = factory;
+        }
+
+        private boolean isApplicable(String requestedInjectionSource) {
+            return injectionSource == null ? requestedInjectionSource == null
+                    : injectionSource.equals(requestedInjectionSource);
+        }
+    }
+
 }
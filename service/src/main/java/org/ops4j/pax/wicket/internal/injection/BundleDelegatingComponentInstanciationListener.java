@@ -17,9 +17,11 @@ package org.ops4j.pax.wicket.internal.injection;
 
 import java.util.Collection;
 import java.util.Dictionary;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.cglib.proxy.Factory;
 
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.PaxWicketBeanInjectionSource;
@@ -28,6 +30,7 @@ import org.ops4j.pax.wicket.internal.InternalBundleDelegationProvider;
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
@@ -41,8 +44,12 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
     private final String applicationName;
     private final BundleContext paxWicketBundleContext;
 
-    private final Map<String, BundleAnalysingComponentInstantiationListener> listeners =
-        new HashMap<String, BundleAnalysingComponentInstantiationListener>();
+    /**
+     * The listeners of the added bundles by their bundle id, components are dispatched to the listener of the bundle
+     * defining their class.
+     */
+    private final ConcurrentMap<Long, BundleAnalysingComponentInstantiationListener> listeners =
+        new ConcurrentHashMap<Long, BundleAnalysingComponentInstantiationListener>();
     private ServiceRegistration<PaxWicketInjector> serviceRegistration;
 
     private final ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> factoryTracker;
@@ -59,9 +66,26 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
     }
 
     public void start() {
+        serviceRegistration =
+            paxWicketBundleContext.registerService(PaxWicketInjector.class, this, createServiceProperties());
+    }
+
+    private Dictionary<String, String> createServiceProperties() {
         Dictionary<String, String> props = new Hashtable<String, String>();
         props.put(Constants.APPLICATION_NAME, applicationName);
-        serviceRegistration = paxWicketBundleContext.registerService(PaxWicketInjector.class, this, props);
+        return props;
+    }
+
+    /**
+     * Fires a modified event for the injector service, telling the DelegatingComponentInstanciationListener of the
+     * application that the set of injectable classes changed.
+     */
+    private void notifyContentChanged() {
+        try {
+            serviceRegistration.setProperties(createServiceProperties());
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Injector of application {} had already been unregistered", applicationName);
+        }
     }
 
     public void stop() {
@@ -72,30 +96,47 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
         serviceRegistration.unregister();
     }
 
-    public void addBundle(ExtendedBundle bundle) {
+    public void addBundles(Collection<ExtendedBundle> bundles) {
         if (serviceRegistration == null) {
             throw new IllegalStateException("Cannot add any bundle to listener while not started.");
         }
-        listeners.put(bundle.getBundle().getSymbolicName(),
-            new BundleAnalysingComponentInstantiationListener(bundle.getBundle().getBundleContext(),
-                PaxWicketBeanInjectionSource.INJECTION_SOURCE_SCAN, factoryTracker));
+        for (ExtendedBundle bundle : bundles) {
+            try {
+                listeners.put(bundle.getBundle().getBundleId(),
+                    new BundleAnalysingComponentInstantiationListener(bundle.getBundle().getBundleContext(),
+                        PaxWicketBeanInjectionSource.INJECTION_SOURCE_SCAN, factoryTracker));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Bundle {} could not be added to the injector of application {}", new Object[]{
+                    bundle.getBundle().getSymbolicName(), applicationName, e });
+            }
+        }
+        notifyContentChanged();
     }
 
-    public void removeBundle(ExtendedBundle bundle) {
+    public void removeBundles(Collection<ExtendedBundle> bundles) {
         if (serviceRegistration == null) {
             throw new IllegalStateException("Cannot add any bundle to listener while not started.");
         }
-        listeners.remove(bundle.getBundle().getSymbolicName());
+        for (ExtendedBundle bundle : bundles) {
+            listeners.remove(bundle.getBundle().getBundleId());
+        }
+        notifyContentChanged();
     }
 
+    /**
+     * Injects the fields declared by the given level of the component's class hierarchy using the listener of the
+     * bundle which defines that level; the levels of a hierarchy spread over several bundles are handed in one by one.
+     */
     public void inject(Object toInject, Class<?> toHandle) {
-        synchronized (listeners) {
-            Collection<BundleAnalysingComponentInstantiationListener> values = listeners.values();
-            for (BundleAnalysingComponentInstantiationListener analyser : values) {
-                if (analyser.injectionPossible(toHandle)) {
-                    analyser.inject(toInject, toHandle);
-                    return;
-                }
+        // the fields of generated subclasses are declared by the enhanced class
+        Class<?> declaringClass = Factory.class.isAssignableFrom(toHandle) ? toHandle.getSuperclass() : toHandle;
+        ClassLoader classLoader = declaringClass.getClassLoader();
+        if (classLoader instanceof BundleReference) {
+            BundleAnalysingComponentInstantiationListener analyser =
+                listeners.get(((BundleReference) classLoader).getBundle().getBundleId());
+            if (analyser != null) {
+                analyser.inject(toInject, toHandle);
+                return;
             }
         }
         throw new IllegalStateException("no source for injection found");
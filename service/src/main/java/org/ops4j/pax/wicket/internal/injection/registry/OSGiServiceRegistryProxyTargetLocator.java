@@ -52,6 +52,10 @@ public class OSGiServiceRegistryProxyTargetLocator implements FutureProxyTargetL
 
     private final String filterString;
 
+    private final boolean sticky;
+
+    private transient volatile StickyServiceBinding stickyBinding;
+
     /**
      * @param pageClass
      * @param serviceClass
@@ -59,13 +63,26 @@ public class OSGiServiceRegistryProxyTargetLocator implements FutureProxyTargetL
      */
     public OSGiServiceRegistryProxyTargetLocator(BundleContext callingContext, Filter baseFilter,
             Class<?> serviceClass, Class<?> pageClass) {
+        this(callingContext, baseFilter, serviceClass, pageClass, false);
+    }
+
+    /**
+     * @param sticky if <code>true</code> the located target stays bound to the best matching service until service
+     *        events change the best match, otherwise the service is looked up and released for every call
+     */
+    public OSGiServiceRegistryProxyTargetLocator(BundleContext callingContext, Filter baseFilter,
+            Class<?> serviceClass, Class<?> pageClass, boolean sticky) {
         bundleContext = callingContext;
         this.filterString = getFilterString(baseFilter);
         this.parent = pageClass;
+        this.sticky = sticky;
         serviceInterface = serviceClass.getName();
     }
 
     public ReleasableProxyTarget locateProxyTarget() {
+        if (sticky) {
+            return new StickyProxyTarget();
+        }
         ServiceReference<?>[] references = fetchReferences();
         if (references != null) {
             // Sort the references...
@@ -170,6 +187,35 @@ public class OSGiServiceRegistryProxyTargetLocator implements FutureProxyTargetL
         }
     }
 
+    private StickyServiceBinding getStickyBinding() {
+        StickyServiceBinding binding = stickyBinding;
+        if (binding == null || binding.isClosed()) {
+            binding = StickyServiceBinding.getBinding(bundleContext, serviceInterface, filterString);
+            stickyBinding = binding;
+        }
+        return binding;
+    }
+
+    /**
+     * A proxy target reading the service currently bound by the shared {@link StickyServiceBinding}; it is never
+     * released since the binding itself follows the service events.
+     */
+    private final class StickyProxyTarget implements ReleasableProxyTarget {
+
+        public Object getTarget() throws IllegalStateException {
+            Object service = getStickyBinding().getBoundService();
+            if (service == null) {
+                throw new IllegalStateException("can't find any service matching objectClass = "
+                        + serviceInterface + " and filter = " + filterString);
+            }
+            return service;
+        }
+
+        public ProxyTarget releaseTarget() {
+            return this;
+        }
+    }
+
     public Class<?> getParent() {
         return parent;
     }
@@ -23,19 +23,22 @@ import java.util.Set;
 
 import org.ops4j.pax.wicket.api.PaxWicketBeanFilter;
 import org.ops4j.pax.wicket.api.PaxWicketBeanInjectionSource;
+import org.ops4j.pax.wicket.api.PaxWicketBeanStickyBinding;
 import org.ops4j.pax.wicket.internal.injection.BundleAnalysingComponentInstantiationListener;
 import org.ops4j.pax.wicket.spi.FutureProxyTargetLocator;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocator;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleReference;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.SynchronousBundleListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class OSGiServiceRegistryProxyTargetLocatorFactory implements
-        ProxyTargetLocatorFactory.DelayableProxyTargetLocatorFactory {
+        ProxyTargetLocatorFactory.DelayableProxyTargetLocatorFactory, SynchronousBundleListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OSGiServiceRegistryProxyTargetLocatorFactory.class);
 
@@ -72,9 +75,10 @@ public class OSGiServiceRegistryProxyTargetLocatorFactory implements
             LOGGER.debug("Inject Collection, Set or List for type {}", argument);
             return new StaticProxyTargetLocator(createCollection(argument, filter, context), page);
         }
+        boolean sticky = field.isAnnotationPresent(PaxWicketBeanStickyBinding.class);
         OSGiServiceRegistryProxyTargetLocator locator =
             new OSGiServiceRegistryProxyTargetLocator(context, filter,
-                type, page);
+                type, page, sticky);
         if (locator.fetchReferences() != null) {
             return locator;
         } else {
@@ -89,6 +93,23 @@ public class OSGiServiceRegistryProxyTargetLocatorFactory implements
             realFieldType, page);
     }
 
+    /**
+     * Releases the services bound for fields marked with {@link PaxWicketBeanStickyBinding} by a bundle as soon as it
+     * stops, while its bundle context is still valid.
+     */
+    public void bundleChanged(BundleEvent event) {
+        if (event.getType() == BundleEvent.STOPPING || event.getType() == BundleEvent.UNINSTALLED) {
+            StickyServiceBinding.closeBindings(event.getBundle().getBundleId());
+        }
+    }
+
+    /**
+     * Releases all services bound for fields marked with {@link PaxWicketBeanStickyBinding}.
+     */
+    public void dispose() {
+        StickyServiceBinding.closeAll();
+    }
+
     private static Filter getFilter(BundleContext context, Field field) {
         PaxWicketBeanFilter annotation = field.getAnnotation(PaxWicketBeanFilter.class);
         if (annotation != null) {
@@ -0,0 +1,197 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.registry;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the best service (highest ranking) matching an interface and filter for a bundle. The bound service
+ * is only recomputed on service events, reading it is a single volatile read. Bindings are shared per bundle,
+ * interface and filter, and closed when their bundle stops (see {@link #closeBindings(long)}).
+ */
+final class StickyServiceBinding extends ServiceTracker<Object, Object> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StickyServiceBinding.class);
+
+    private static final ConcurrentMap<String, StickyServiceBinding> BINDINGS =
+        new ConcurrentHashMap<String, StickyServiceBinding>();
+
+    private final BundleContext bundleContext;
+    private final long bundleId;
+    private final String key;
+
+    private volatile boolean closed;
+
+    private volatile ServiceReference<Object> boundReference;
+    private volatile Object boundService;
+
+    private StickyServiceBinding(BundleContext bundleContext, String filter, String key)
+        throws InvalidSyntaxException {
+        super(bundleContext, bundleContext.createFilter(filter), null);
+        this.bundleContext = bundleContext;
+        bundleId = bundleContext.getBundle().getBundleId();
+        this.key = key;
+    }
+
+    /**
+     * @return the opened binding for the given bundle, interface and (optional) filter
+     */
+    static StickyServiceBinding getBinding(BundleContext bundleContext, String serviceInterface, String filterString) {
+        String filter;
+        if (filterString == null) {
+            filter = String.format("(%s=%s)", Constants.OBJECTCLASS, serviceInterface);
+        } else {
+            filter = String.format("(&(%s=%s)%s)", Constants.OBJECTCLASS, serviceInterface, filterString);
+        }
+        String key = bundleContext.getBundle().getBundleId() + ":" + filter;
+        StickyServiceBinding binding = BINDINGS.get(key);
+        if (binding != null && binding.bundleContext == bundleContext) {
+            return binding;
+        }
+        synchronized (BINDINGS) {
+            binding = BINDINGS.get(key);
+            if (binding != null && binding.bundleContext == bundleContext) {
+                return binding;
+            }
+            if (binding != null) {
+                // the bundle had been restarted in the meantime
+                binding.closeQuietly();
+            }
+            try {
+                binding = new StickyServiceBinding(bundleContext, filter, key);
+            } catch (InvalidSyntaxException e) {
+                throw new RuntimeException("filter creation failed", e);
+            }
+            binding.open();
+            BINDINGS.put(key, binding);
+            return binding;
+        }
+    }
+
+    /**
+     * Closes all bindings, called when PAX Wicket is stopped.
+     */
+    static void closeAll() {
+        synchronized (BINDINGS) {
+            for (StickyServiceBinding binding : BINDINGS.values()) {
+                binding.closeQuietly();
+            }
+            BINDINGS.clear();
+        }
+    }
+
+    /**
+     * Closes the bindings of the given bundle, called when the bundle stops or is uninstalled.
+     */
+    static void closeBindings(long bundleId) {
+        synchronized (BINDINGS) {
+            for (Iterator<StickyServiceBinding> iterator = BINDINGS.values().iterator(); iterator.hasNext();) {
+                StickyServiceBinding binding = iterator.next();
+                if (binding.bundleId == bundleId) {
+                    binding.closeQuietly();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the binding is closed and has to be looked up again
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the currently bound service or <code>null</code> if there is no matching service
+     */
+    Object getBoundService() {
+        return boundService;
+    }
+
+    @Override
+    public Object addingService(ServiceReference<Object> reference) {
+        Object service = super.addingService(reference);
+        if (service != null) {
+            synchronized (this) {
+                ServiceReference<Object> current = boundReference;
+                if (current == null || reference.compareTo(current) > 0) {
+                    bind(reference, service);
+                }
+            }
+        }
+        return service;
+    }
+
+    @Override
+    public void modifiedService(ServiceReference<Object> reference, Object service) {
+        rebind();
+    }
+
+    @Override
+    public void removedService(ServiceReference<Object> reference, Object service) {
+        rebind();
+        super.removedService(reference, service);
+    }
+
+    private void rebind() {
+        synchronized (this) {
+            ServiceReference<Object> best = null;
+            ServiceReference<Object>[] references = getServiceReferences();
+            if (references != null) {
+                for (ServiceReference<Object> reference : references) {
+                    if (best == null || reference.compareTo(best) > 0) {
+                        best = reference;
+                    }
+                }
+            }
+            if (best == null) {
+                bind(null, null);
+            } else {
+                bind(best, getService(best));
+            }
+        }
+    }
+
+    private void bind(ServiceReference<Object> reference, Object service) {
+        LOGGER.debug("Binding {} is now bound to {}", key, reference);
+        boundService = service;
+        boundReference = reference;
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        try {
+            close();
+        } catch (IllegalStateException e) {
+            // the bundle context is no longer valid, all services had been released by the framework already
+            LOGGER.trace("BundleContext of binding {} is no longer valid", key, e);
+        }
+        synchronized (this) {
+            bind(null, null);
+        }
+    }
+}
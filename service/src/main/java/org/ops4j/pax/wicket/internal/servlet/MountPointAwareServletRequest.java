@@ -0,0 +1,85 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.servlet;
+
+import static org.ops4j.lang.NullArgumentException.validateNotNull;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Wraps the requests given to a pax wicket application. If the application is mounted at the root of the http
+ * service, the context and servlet path are hidden from wicket and the servlet path is reported as path info instead;
+ * otherwise all calls are passed through unchanged.
+ */
+public final class MountPointAwareServletRequest extends HttpServletRequestWrapper {
+
+    private final String mountPoint;
+    private final boolean rootMounted;
+
+    public MountPointAwareServletRequest(HttpServletRequest request, String mountPoint)
+        throws IllegalArgumentException {
+        super(validateRequest(request));
+        validateNotNull(mountPoint, "mountPoint");
+        if (mountPoint.length() <= 1) {
+            if (mountPoint.startsWith("/")) {
+                mountPoint = mountPoint.substring(1);
+            }
+        } else {
+            if (!mountPoint.startsWith("/")) {
+                mountPoint = "/" + mountPoint;
+            }
+        }
+        this.mountPoint = mountPoint;
+        rootMounted = mountPoint.length() == 0;
+    }
+
+    private static HttpServletRequest validateRequest(HttpServletRequest request) {
+        validateNotNull(request, "request");
+        return request;
+    }
+
+    /**
+     * @return the normalized mount point of the application this request is dispatched to
+     */
+    public String getMountPoint() {
+        return mountPoint;
+    }
+
+    @Override
+    public String getContextPath() {
+        if (rootMounted) {
+            return "";
+        }
+        return super.getContextPath();
+    }
+
+    @Override
+    public String getServletPath() {
+        if (rootMounted) {
+            return "";
+        }
+        return super.getServletPath();
+    }
+
+    @Override
+    public String getPathInfo() {
+        if (rootMounted) {
+            return super.getServletPath();
+        }
+        return super.getPathInfo();
+    }
+}
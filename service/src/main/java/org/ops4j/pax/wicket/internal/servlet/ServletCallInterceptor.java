@@ -15,13 +15,8 @@
  */
 package org.ops4j.pax.wicket.internal.servlet;
 
-import static java.lang.reflect.Proxy.newProxyInstance;
-
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
-import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
@@ -53,10 +48,6 @@ public class ServletCallInterceptor implements Servlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(ServletCallInterceptor.class);
 
-    private static final Class<?>[] REQUEST_INTERFACES = new Class[]{
-        HttpServletRequest.class
-    };
-
     private final PaxWicketApplicationFactory applicationFactory;
     private final Servlet delegateServlet;
 
@@ -158,8 +149,8 @@ public class ServletCallInterceptor implements Servlet {
         // Check if we should replace this request
         if (req instanceof HttpServletRequest) {
             HttpServletRequest httpServletRequest = (HttpServletRequest) req;
-            if (!isProxied(httpServletRequest)) {
-                req = newProxyRequest(httpServletRequest);
+            if (!(httpServletRequest instanceof MountPointAwareServletRequest)) {
+                req = new MountPointAwareServletRequest(httpServletRequest, applicationFactory.getMountPoint());
             }
         }
         // Start the filter process...
@@ -167,27 +158,13 @@ public class ServletCallInterceptor implements Servlet {
         if (filterDelegator != null) {
             filterDelegator.doFilter(superFilter, req, res);
         } else if (superFilter.length > 0) {
-            FilterChain chain = new PAXWicketFilterChain(Arrays.asList(superFilter), delegateServlet);
+            FilterChain chain = new PAXWicketFilterChain(superFilter, delegateServlet);
             chain.doFilter(req, res);
         } else {
             delegateServlet.service(req, res);
         }
     }
 
-    /**
-     * Check if this request is already proxied by pax wicket
-     * 
-     * @param httpServletRequest
-     * @return true if the instance is a proxy and invocationhandler is a {@link ServletRequestInvocationHandler}
-     */
-    private boolean isProxied(HttpServletRequest httpServletRequest) {
-        if (Proxy.isProxyClass(httpServletRequest.getClass())) {
-            InvocationHandler handler = Proxy.getInvocationHandler(httpServletRequest);
-            return handler instanceof ServletRequestInvocationHandler;
-        }
-        return false;
-    }
-
     public String getServletInfo() {
         return delegateServlet.getServletInfo();
     }
@@ -205,11 +182,4 @@ public class ServletCallInterceptor implements Servlet {
         delegateServlet.destroy();
     }
 
-    private HttpServletRequest newProxyRequest(HttpServletRequest request) {
-        ClassLoader loader = getClass().getClassLoader();
-        ServletRequestInvocationHandler ih =
-                new ServletRequestInvocationHandler(request, applicationFactory.getMountPoint());
-        return (HttpServletRequest) newProxyInstance(loader, REQUEST_INTERFACES, ih);
-    }
-
 }
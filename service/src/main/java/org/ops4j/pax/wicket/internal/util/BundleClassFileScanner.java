@@ -0,0 +1,171 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the annotated classes of a bundle by reading the class files on its <code>Bundle-ClassPath</code>. The class
+ * files are read as entries of the bundle (and its attached fragments), never through its class loader, so the bundle
+ * doesn't have to be resolved and classes of imported packages are not seen. Jars embedded into the class path are
+ * read entry by entry.
+ */
+public final class BundleClassFileScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleClassFileScanner.class);
+
+    private static final String ROOT = ".";
+
+    private final ClassFileAnnotationScanner annotationScanner;
+
+    public BundleClassFileScanner(Class<? extends Annotation> annotationType) {
+        annotationScanner = new ClassFileAnnotationScanner(annotationType);
+    }
+
+    /**
+     * @return the binary names of the annotated classes found on the whole class path of the bundle
+     */
+    public Collection<String> findAnnotatedClasses(Bundle bundle) {
+        return findAnnotatedClasses(bundle, true);
+    }
+
+    /**
+     * The classes in the root of the bundle are the ones the pax-wicket index is written for at build time; the other
+     * entries of the class path (e.g. embedded jars) are not covered by the index and still have to be scanned.
+     * 
+     * @return the binary names of the annotated classes found on the class path of the bundle except for its root
+     */
+    public Collection<String> findAnnotatedClassPathClasses(Bundle bundle) {
+        return findAnnotatedClasses(bundle, false);
+    }
+
+    private Collection<String> findAnnotatedClasses(Bundle bundle, boolean includeRoot) {
+        Set<String> classNames = new LinkedHashSet<String>();
+        for (String classPathEntry : getClassPath(bundle)) {
+            if (includeRoot || !ROOT.equals(classPathEntry)) {
+                scanClassPathEntry(bundle, classPathEntry, classNames);
+            }
+        }
+        return new ArrayList<String>(classNames);
+    }
+
+    private void scanClassPathEntry(Bundle bundle, String classPathEntry, Collection<String> classNames) {
+        if (ROOT.equals(classPathEntry)) {
+            scanFolder(bundle, "/", classNames);
+        } else if (classPathEntry.endsWith(".jar") || classPathEntry.endsWith(".zip")) {
+            scanJar(bundle, classPathEntry, classNames);
+        } else {
+            scanFolder(bundle, classPathEntry, classNames);
+        }
+    }
+
+    private void scanFolder(Bundle bundle, String folder, Collection<String> classNames) {
+        Enumeration<URL> entries = bundle.findEntries(folder, "*.class", true);
+        if (entries == null) {
+            return;
+        }
+        while (entries.hasMoreElements()) {
+            URL classFile = entries.nextElement();
+            try {
+                // the name is read from the class file, so entries below the folder get the right name
+                String className = annotationScanner.getAnnotatedClassName(classFile);
+                if (className != null) {
+                    classNames.add(className);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("can't read class file {} of bundle {}", classFile, bundle.getSymbolicName(), e);
+            }
+        }
+    }
+
+    private void scanJar(Bundle bundle, String jar, Collection<String> classNames) {
+        URL jarEntry = bundle.getEntry(jar);
+        if (jarEntry == null) {
+            // class path entries may be missing, e.g. if they are provided by a fragment
+            LOGGER.debug("class path entry {} of bundle {} not found", jar, bundle.getSymbolicName());
+            return;
+        }
+        try {
+            JarInputStream in = new JarInputStream(jarEntry.openStream());
+            try {
+                JarEntry entry;
+                while ((entry = in.getNextJarEntry()) != null) {
+                    if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                        String className = getAnnotatedClassName(in, entry, bundle);
+                        if (className != null) {
+                            classNames.add(className);
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("can't read embedded jar {} of bundle {}", jar, bundle.getSymbolicName(), e);
+        }
+    }
+
+    private String getAnnotatedClassName(InputStream in, JarEntry entry, Bundle bundle) {
+        try {
+            return annotationScanner.getAnnotatedClassName(in);
+        } catch (IOException e) {
+            LOGGER.debug("can't read class file {} of bundle {}", entry.getName(), bundle.getSymbolicName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the entries of the <code>Bundle-ClassPath</code> header, the bundle root if there is none
+     */
+    static List<String> getClassPath(Bundle bundle) {
+        List<String> classPath = new ArrayList<String>();
+        String header = bundle.getHeaders("").get(Constants.BUNDLE_CLASSPATH);
+        if (header != null) {
+            for (String clause : header.split(",")) {
+                // directives and attributes (e.g. a selection filter) are ignored
+                String entry = clause.split(";")[0].trim();
+                if (entry.startsWith("/")) {
+                    entry = entry.substring(1);
+                }
+                if (entry.length() == 0 || "/".equals(entry)) {
+                    entry = ROOT;
+                }
+                classPath.add(entry);
+            }
+        }
+        if (classPath.isEmpty()) {
+            classPath.add(ROOT);
+        }
+        return classPath;
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The index written by the pax-wicket annotation processor at build time of a bundle. It lists the mount point pages
+ * and the classes declaring fields to inject, so the classes in the root of such bundles don't have to be scanned.
+ * An empty index is valid, it says the root contains none of them. Classes of other <code>Bundle-ClassPath</code>
+ * entries (e.g. embedded jars) are not compiled with the bundle and so are never listed.
+ */
+public final class BundleContentIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleContentIndex.class);
+
+    private static final String INDEX_LOCATION = "META-INF/pax-wicket/index";
+
+    private static final String MOUNT_POINT_ENTRY = "mount-point";
+
+    private static final String INJECT_ENTRY = "inject";
+
+    private final Collection<String> mountPointClasses;
+
+    private final Collection<String> injectClasses;
+
+    private BundleContentIndex(Collection<String> mountPointClasses, Collection<String> injectClasses) {
+        this.mountPointClasses = Collections.unmodifiableCollection(mountPointClasses);
+        this.injectClasses = Collections.unmodifiableCollection(injectClasses);
+    }
+
+    /**
+     * @return the binary names of the classes annotated with a mount point
+     */
+    public Collection<String> getMountPointClasses() {
+        return mountPointClasses;
+    }
+
+    /**
+     * @return the binary names of the classes declaring at least one field to inject
+     */
+    public Collection<String> getInjectClasses() {
+        return injectClasses;
+    }
+
+    /**
+     * @return the index of the bundle or <code>null</code> if the bundle contains no (readable) index
+     */
+    public static BundleContentIndex read(Bundle bundle) {
+        URL entry = bundle.getEntry(INDEX_LOCATION);
+        if (entry == null) {
+            return null;
+        }
+        List<String> mountPointClasses = new ArrayList<String>();
+        List<String> injectClasses = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(entry.openStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    int separator = line.indexOf(' ');
+                    if (separator < 0) {
+                        continue;
+                    }
+                    String kind = line.substring(0, separator);
+                    String className = line.substring(separator + 1).trim();
+                    if (MOUNT_POINT_ENTRY.equals(kind)) {
+                        mountPointClasses.add(className);
+                    } else if (INJECT_ENTRY.equals(kind)) {
+                        injectClasses.add(className);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't read the pax-wicket index of bundle {}, the bundle is scanned instead",
+                bundle.getSymbolicName(), e);
+            return null;
+        }
+        LOGGER.debug("Using the pax-wicket index of bundle {}", bundle.getSymbolicName());
+        return new BundleContentIndex(mountPointClasses, injectClasses);
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.ops4j.pax.wicket.internal.Activator;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the results of scanning the content of a bundle in the data area of the pax-wicket bundle, so unchanged
+ * bundles don't have to be scanned again after a restart of the framework. A result is stored per bundle id and kind
+ * of scan and is only used as long as the last modification time and the version of the bundle as well as the
+ * attached fragments (and their last modification times) are the same as at the time of the scan. The results of a
+ * bundle are deleted once it's uninstalled. If pax-wicket is not active or the data area is not available the bundle
+ * is simply scanned.
+ */
+public final class BundleScanCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleScanCache.class);
+
+    private static final String CACHE_DIRECTORY = "scan-cache";
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Does the actual (expensive) scan of a bundle.
+     */
+    public interface BundleScanner {
+
+        Collection<String> scan(Bundle bundle);
+
+    }
+
+    private BundleScanCache() {
+    }
+
+    /**
+     * @param bundle the bundle whose content is scanned
+     * @param kind name of the scan, has to be usable as part of a file name
+     * @param scanner called if no valid result for the bundle is stored
+     * @return the stored or freshly created result of the scan
+     */
+    public static Collection<String> getScanResult(Bundle bundle, String kind, BundleScanner scanner) {
+        File cacheFile = getCacheFile(bundle, kind);
+        if (cacheFile == null) {
+            return scanner.scan(bundle);
+        }
+        if (cacheFile.isFile()) {
+            try {
+                Collection<String> result = read(cacheFile, bundle);
+                if (result != null) {
+                    LOGGER.trace("Using stored {} scan of bundle {}", kind, bundle.getSymbolicName());
+                    return result;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Can't read stored {} scan of bundle {}", kind, bundle.getSymbolicName(), e);
+            }
+        }
+        Collection<String> result = scanner.scan(bundle);
+        try {
+            write(cacheFile, bundle, result);
+        } catch (IOException e) {
+            LOGGER.debug("Can't store {} scan of bundle {}", kind, bundle.getSymbolicName(), e);
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the stored results of the bundle; bundle ids are not reused, so the results of an uninstalled bundle
+     * would never be used again.
+     */
+    public static void forget(Bundle bundle) {
+        File directory = getCacheDirectory();
+        if (directory == null) {
+            return;
+        }
+        String prefix = bundle.getBundleId() + "-";
+        File[] cacheFiles = directory.listFiles();
+        if (cacheFiles == null) {
+            return;
+        }
+        for (File cacheFile : cacheFiles) {
+            if (cacheFile.getName().startsWith(prefix) && !cacheFile.delete()) {
+                LOGGER.debug("Can't delete stored scan {} of bundle {}", cacheFile, bundle.getSymbolicName());
+            }
+        }
+    }
+
+    private static File getCacheFile(Bundle bundle, String kind) {
+        File directory = getCacheDirectory();
+        if (directory == null) {
+            return null;
+        }
+        return new File(directory, bundle.getBundleId() + "-" + kind);
+    }
+
+    private static File getCacheDirectory() {
+        BundleContext paxWicketContext = Activator.getBundleContext();
+        if (paxWicketContext == null) {
+            return null;
+        }
+        File directory;
+        try {
+            directory = paxWicketContext.getDataFile(CACHE_DIRECTORY);
+        } catch (IllegalStateException e) {
+            // pax-wicket is stopping
+            return null;
+        }
+        if (directory == null || !(directory.isDirectory() || directory.mkdirs())) {
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * Fragments add entries to the content of their host, so they are part of the state a result was created for.
+     * 
+     * @return the ids and last modification times of the fragments attached to the bundle
+     */
+    private static String getAttachedFragments(Bundle bundle) {
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring == null) {
+            // not resolved, so no fragments are attached
+            return "";
+        }
+        StringBuilder fragments = new StringBuilder();
+        for (BundleWire wire : wiring.getProvidedWires(BundleRevision.HOST_NAMESPACE)) {
+            Bundle fragment = wire.getRequirer().getBundle();
+            fragments.append(fragment.getBundleId()).append(':').append(fragment.getLastModified()).append(';');
+        }
+        return fragments.toString();
+    }
+
+    /**
+     * @return the stored result or <code>null</code> if it was created for another state of the bundle
+     */
+    private static Collection<String> read(File cacheFile, Bundle bundle) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        try {
+            if (in.readInt() != FORMAT_VERSION || in.readLong() != bundle.getLastModified()
+                    || !in.readUTF().equals(bundle.getVersion().toString())
+                    || !in.readUTF().equals(getAttachedFragments(bundle))) {
+                return null;
+            }
+            int size = in.readInt();
+            List<String> result = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(in.readUTF());
+            }
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File cacheFile, Bundle bundle, Collection<String> result) throws IOException {
+        // write to a temporary file first, so a concurrent or interrupted scan never leaves a half written result
+        File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(bundle.getLastModified());
+                out.writeUTF(bundle.getVersion().toString());
+                out.writeUTF(getAttachedFragments(bundle));
+                out.writeInt(result.size());
+                for (String entry : result) {
+                    out.writeUTF(entry);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile)) {
+                    throw new IOException("can't replace " + cacheFile);
+                }
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import static org.ops4j.lang.NullArgumentException.validateNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+
+/**
+ * Checks class files for a runtime visible class level annotation without loading them. Only the constant pool and
+ * the class attributes are read, fields and methods are skipped. This way a bundle can be searched for annotated
+ * classes without defining every class it contains.
+ */
+public final class ClassFileAnnotationScanner {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final String annotationDescriptor;
+
+    public ClassFileAnnotationScanner(Class<? extends Annotation> annotationType) {
+        validateNotNull(annotationType, "annotationType");
+        annotationDescriptor = "L" + annotationType.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * @return the binary name of the class stored at the given location if it carries the annotation,
+     *         <code>null</code> otherwise
+     */
+    public String getAnnotatedClassName(URL classFile) throws IOException {
+        validateNotNull(classFile, "classFile");
+        InputStream stream = classFile.openStream();
+        try {
+            return getAnnotatedClassName(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads a class file from the given stream, the stream is not closed by this method. The class name is taken from
+     * the class file itself, so it is also correct if the entry is stored below some output folder prefix.
+     *
+     * @return the binary name of the class if it carries the annotation, <code>null</code> otherwise
+     */
+    public String getAnnotatedClassName(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        skipFully(in, 4); // minor and major version
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] classNames = new int[constantPoolCount];
+        boolean descriptorFound = false;
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    descriptorFound |= annotationDescriptor.equals(utf8[i]);
+                    break;
+                case CONSTANT_CLASS:
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skipFully(in, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skipFully(in, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skipFully(in, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skipFully(in, 8);
+                    // eight byte constants occupy two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+        if (!descriptorFound) {
+            // the annotation type is not referenced at all, no need to look any further
+            return null;
+        }
+        skipFully(in, 2); // access flags
+        int thisClass = in.readUnsignedShort();
+        skipFully(in, 2); // super class
+        skipFully(in, 2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String name = utf8[in.readUnsignedShort()];
+            long length = in.readInt() & 0xFFFFFFFFL;
+            if (!RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                skipFully(in, length);
+                continue;
+            }
+            int annotationCount = in.readUnsignedShort();
+            for (int j = 0; j < annotationCount; j++) {
+                if (annotationDescriptor.equals(utf8[in.readUnsignedShort()])) {
+                    return utf8[classNames[thisClass]].replace('/', '.');
+                }
+                skipElementValuePairs(in);
+            }
+        }
+        return null;
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int memberCount = in.readUnsignedShort();
+        for (int i = 0; i < memberCount; i++) {
+            skipFully(in, 6); // access flags, name and descriptor
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                skipFully(in, 2);
+                skipFully(in, in.readInt() & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static void skipElementValuePairs(DataInputStream in) throws IOException {
+        int pairCount = in.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            skipFully(in, 2); // element name
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                skipFully(in, 4);
+                break;
+            case '@':
+                skipFully(in, 2);
+                skipElementValuePairs(in);
+                break;
+            case '[':
+                int valueCount = in.readUnsignedShort();
+                for (int i = 0; i < valueCount; i++) {
+                    skipElementValue(in);
+                }
+                break;
+            default:
+                // constants and class literals are all a single constant pool index
+                skipFully(in, 2);
+                break;
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a thread pool while tasks submitted for the same key are run one after the other in the order they
+ * had been submitted. Tasks for different keys run in parallel. Tasks may be delayed, the delay ends before the task
+ * is queued for its key.
+ */
+public final class KeyedSerialExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * The tasks waiting for the currently running task of their key; a key is contained as long as one of its tasks
+     * is running.
+     */
+    private final Map<Object, Queue<Runnable>> queues = new HashMap<Object, Queue<Runnable>>();
+
+    private final List<Runnable> idleCallbacks = new ArrayList<Runnable>();
+
+    private int pendingTasks;
+
+    public KeyedSerialExecutor(final String threadName, int threads) {
+        executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void execute(Object key, Runnable task) {
+        synchronized (queues) {
+            pendingTasks++;
+        }
+        enqueue(key, task);
+    }
+
+    /**
+     * Queues the task for its key after the given delay. The task counts as pending (see {@link #whenIdle(Runnable)})
+     * from now on and is still run if the executor is shut down in the meantime.
+     */
+    public void execute(final Object key, final Runnable task, long delay, TimeUnit unit) {
+        synchronized (queues) {
+            pendingTasks++;
+        }
+        Runnable enqueue = new Runnable() {
+            public void run() {
+                enqueue(key, task);
+            }
+        };
+        try {
+            executor.schedule(enqueue, delay, unit);
+        } catch (RejectedExecutionException e) {
+            enqueue.run();
+        }
+    }
+
+    private void enqueue(Object key, Runnable task) {
+        synchronized (queues) {
+            Queue<Runnable> queue = queues.get(key);
+            if (queue != null) {
+                queue.add(task);
+                return;
+            }
+            queues.put(key, new LinkedList<Runnable>());
+        }
+        submit(key, task);
+    }
+
+    /**
+     * Calls the callback as soon as all tasks submitted so far (and the ones submitted in the meantime) are done. If no
+     * task is pending the callback is called immediately.
+     */
+    public void whenIdle(Runnable callback) {
+        synchronized (queues) {
+            if (pendingTasks > 0) {
+                idleCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Runs all pending tasks and stops the threads afterwards.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                LOGGER.warn("Not all tasks finished within {} {}", timeout, unit);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(final Object key, final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    runTask(key, task);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, the remaining tasks of the key are run by the current thread
+            runTask(key, task);
+        }
+    }
+
+    private void runTask(Object key, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Task for {} failed", key, e);
+        } catch (Error e) {
+            // rethrown below, but the next tasks of the key must run anyway
+            LOGGER.error("Task for {} failed", key, e);
+            throw e;
+        } finally {
+            taskDone(key);
+        }
+    }
+
+    private void taskDone(Object key) {
+        Runnable next;
+        List<Runnable> callbacks = null;
+        synchronized (queues) {
+            pendingTasks--;
+            next = queues.get(key).poll();
+            if (next == null) {
+                queues.remove(key);
+            }
+            if (pendingTasks == 0 && !idleCallbacks.isEmpty()) {
+                callbacks = new ArrayList<Runnable>(idleCallbacks);
+                idleCallbacks.clear();
+            }
+        }
+        try {
+            if (callbacks != null) {
+                for (Runnable callback : callbacks) {
+                    runCallback(callback);
+                }
+            }
+        } finally {
+            if (next != null) {
+                submit(key, next);
+            }
+        }
+    }
+
+    private void runCallback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Idle callback failed", e);
+        }
+    }
+
+}
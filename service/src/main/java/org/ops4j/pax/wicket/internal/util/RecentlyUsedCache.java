@@ -0,0 +1,93 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded map keeping the entries used recently, readable without locking. Entries are kept in two generations: new
+ * and used entries go to the young one; once it is full it becomes the old generation and the previous old generation
+ * is dropped as a whole. An entry read from the old generation is moved to the young one again, so entries in use
+ * survive while the ones not used for a whole generation are evicted. At most twice the generation size of entries is
+ * kept.
+ */
+public final class RecentlyUsedCache<K, V> {
+
+    private final int generationSize;
+
+    private volatile ConcurrentMap<K, V> young = new ConcurrentHashMap<K, V>();
+
+    private volatile ConcurrentMap<K, V> old = new ConcurrentHashMap<K, V>();
+
+    public RecentlyUsedCache(int generationSize) {
+        if (generationSize < 1) {
+            throw new IllegalArgumentException("generationSize must be positive");
+        }
+        this.generationSize = generationSize;
+    }
+
+    /**
+     * @return the value or <code>null</code> if there is no entry for the key
+     */
+    public V get(K key) {
+        V value = young.get(key);
+        if (value == null) {
+            value = old.get(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        ConcurrentMap<K, V> currentYoung = young;
+        currentYoung.put(key, value);
+        if (currentYoung.size() >= generationSize) {
+            rotate(currentYoung);
+        }
+    }
+
+    /**
+     * Removes the entry if the key is still mapped to the value.
+     */
+    public void remove(K key, V value) {
+        young.remove(key, value);
+        old.remove(key, value);
+    }
+
+    public synchronized void clear() {
+        old = new ConcurrentHashMap<K, V>();
+        young = new ConcurrentHashMap<K, V>();
+    }
+
+    /**
+     * @return the number of entries, entries moved but not yet removed from the old generation may be counted twice
+     */
+    public int size() {
+        return young.size() + old.size();
+    }
+
+    private synchronized void rotate(ConcurrentMap<K, V> fullGeneration) {
+        // another thread may have rotated already
+        if (young == fullGeneration) {
+            old = fullGeneration;
+            young = new ConcurrentHashMap<K, V>();
+        }
+    }
+
+}
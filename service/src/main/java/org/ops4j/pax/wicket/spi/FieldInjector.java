@@ -0,0 +1,39 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.spi;
+
+/**
+ * Sets the {@link javax.inject.Inject} fields declared by a single class without reflection. Implementations are
+ * generated by the pax-wicket annotation processor next to the class whose fields they set, named after the class
+ * with {@link #COMPANION_SUFFIX} appended (e.g. <code>Outer_Inner_PaxWicketFieldInjector</code> for a nested class).
+ * Classes without such a companion are injected by reflection.
+ */
+public interface FieldInjector {
+
+    String COMPANION_SUFFIX = "_PaxWicketFieldInjector";
+
+    /**
+     * @return the names of the fields set by this injector; the position of a name is the index passed to
+     *         {@link #setField(Object, int, Object)}
+     */
+    String[] getFieldNames();
+
+    /**
+     * Sets the field at the given index of {@link #getFieldNames()} of the component to the value.
+     */
+    void setField(Object component, int index, Object value);
+
+}
@@ -15,14 +15,15 @@
  */
 package org.ops4j.pax.wicket.spi.support;
 
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.wicket.Page;
 import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
 import org.ops4j.pax.wicket.api.support.DefaultPageMounter;
+import org.ops4j.pax.wicket.internal.util.BundleClassFileScanner;
+import org.ops4j.pax.wicket.internal.util.BundleContentIndex;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
@@ -32,6 +33,9 @@ public class BundleScanningMountPointProviderDecorator implements InjectionAware
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleScanningMountPointProviderDecorator.class);
 
+    private static final BundleClassFileScanner MOUNT_POINT_SCANNER =
+        new BundleClassFileScanner(PaxWicketMountPoint.class);
+
     private BundleContext bundleContext;
     private String applicationName;
     private final List<DefaultPageMounter> mountPointRegistrations = new ArrayList<DefaultPageMounter>();
@@ -46,8 +50,8 @@ public class BundleScanningMountPointProviderDecorator implements InjectionAware
 
     public void start() throws Exception {
         Bundle bundleToScan = bundleContext.getBundle();
-        Enumeration<?> findEntries = bundleToScan.findEntries("", "*.class", true);
-        if (findEntries == null) {
+        Collection<String> classNames = findMountPointClasses(bundleToScan);
+        if (classNames == null) {
             LOGGER.error(new StringBuilder()
                 .append("We've found an error which you should really give a shot but which does not ")
                 .append("interrupt your runtime. Nevertheless we assume that this one is definitely an ")
@@ -58,23 +62,39 @@ public class BundleScanningMountPointProviderDecorator implements InjectionAware
                 .toString(), bundleToScan.getSymbolicName());
             return;
         }
-        while (findEntries.hasMoreElements()) {
-            URL object = (URL) findEntries.nextElement();
-            String className = object.getFile().substring(1, object.getFile().length() - 6).replaceAll("/", ".");
+        for (String className : classNames) {
             Class<?> candidateClass = bundleToScan.loadClass(className);
             if (!Page.class.isAssignableFrom(candidateClass)) {
+                LOGGER.warn("ignore PaxWicketMountPoint annotated class {} since it is no page class", className);
                 continue;
             }
             @SuppressWarnings("unchecked")
             Class<? extends Page> pageClass = (Class<? extends Page>) candidateClass;
             PaxWicketMountPoint mountPoint = pageClass.getAnnotation(PaxWicketMountPoint.class);
-            if (mountPoint != null) {
-                DefaultPageMounter mountPointRegistration = new DefaultPageMounter(applicationName, bundleContext);
-                mountPointRegistration.addMountPoint(mountPoint.mountPoint(), pageClass);
-                mountPointRegistration.register();
-                mountPointRegistrations.add(mountPointRegistration);
-            }
+            DefaultPageMounter mountPointRegistration = new DefaultPageMounter(applicationName, bundleContext);
+            mountPointRegistration.addMountPoint(mountPoint.mountPoint(), pageClass);
+            mountPointRegistration.register();
+            mountPointRegistrations.add(mountPointRegistration);
+        }
+    }
+
+    /**
+     * @return the names of the annotated classes taken from the pax-wicket index of the bundle or found by reading its
+     *         class files, <code>null</code> if the bundle contains no classes at all
+     */
+    private static Collection<String> findMountPointClasses(Bundle bundleToScan) {
+        BundleContentIndex index = BundleContentIndex.read(bundleToScan);
+        if (index != null) {
+            // the index only covers the classes in the root of the bundle, not the rest of its class path
+            Collection<String> classNames = new ArrayList<String>(index.getMountPointClasses());
+            classNames.addAll(MOUNT_POINT_SCANNER.findAnnotatedClassPathClasses(bundleToScan));
+            return classNames;
+        }
+        if (bundleToScan.findEntries("/", "*.class", true) == null
+                && bundleToScan.findEntries("/", "*.jar", true) == null) {
+            return null;
         }
+        return MOUNT_POINT_SCANNER.findAnnotatedClasses(bundleToScan);
     }
 
     public void stop() throws Exception {
@@ -20,11 +20,14 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.sf.cglib.proxy.Factory;
 
@@ -45,6 +48,8 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
     private final BundleContext context;
     private final String applicationName;
     private final List<PaxWicketInjector> resolvers;
+    private final ConcurrentMap<Class<?>, Set<String>> hierarchicalFieldCache;
+    private final ConcurrentMap<Class<?>, Set<String>> singleLevelFieldCache;
 
     private ComponentInstanciationListenerTracker tracker;
 
@@ -54,7 +59,9 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         validateNotEmpty(applicationName, "applicationName");
         this.context = context;
         this.applicationName = applicationName;
-        resolvers = new ArrayList<PaxWicketInjector>();
+        resolvers = new CopyOnWriteArrayList<PaxWicketInjector>();
+        hierarchicalFieldCache = new ConcurrentHashMap<Class<?>, Set<String>>();
+        singleLevelFieldCache = new ConcurrentHashMap<Class<?>, Set<String>>();
 
         InjectorHolder.setInjector(applicationName, this);
     }
@@ -82,43 +89,43 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
     }
 
     public void inject(Object toInject, Class<?> toHandle) {
-        Set<String> foundAnnotation = countComponentContainPaxWicketBeanAnnotatedFieldsHierachical(toHandle);
+        Set<String> foundAnnotation = getInjectFieldsHierachical(toHandle);
         if (foundAnnotation.isEmpty()) {
             LOGGER.trace("Component {} doesn't contain any PaxWicketBean fields. Therefore ignore", toInject
                 .getClass().getName());
             return;
         }
         Set<String> handledAnnotations = new HashSet<String>();
-        synchronized (resolvers) {
-            Class<?> currentAnalysingClass = toHandle;
-            boolean handledFactory = false;
-            if (Factory.class.isInstance(toInject)) {
-                handledFactory = true;
+        Class<?> currentAnalysingClass = toHandle;
+        boolean handledFactory = false;
+        if (Factory.class.isInstance(toInject)) {
+            handledFactory = true;
+        }
+        while (!isBoundaryClass(currentAnalysingClass)) {
+            Set<String> levelAnnotations;
+            if (handledFactory) {
+                levelAnnotations = getInjectFieldsOneLevel(currentAnalysingClass.getSuperclass());
+            } else {
+                levelAnnotations = getInjectFieldsOneLevel(currentAnalysingClass);
             }
-            while (!isBoundaryClass(currentAnalysingClass)) {
+            // levels without any field to inject do not need to be offered to the injectors
+            if (!levelAnnotations.isEmpty()) {
                 for (PaxWicketInjector listener : resolvers) {
                     try {
                         listener.inject(toInject, currentAnalysingClass);
                         // if we reach here the bean had been injected correctly
-                        if (handledFactory) {
-                            handledAnnotations.addAll(
-                                countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass
-                                    .getSuperclass()));
-                        } else {
-                            handledAnnotations.addAll(
-                                countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass));
-                        }
+                        handledAnnotations.addAll(levelAnnotations);
                         // once we've found it we could take the next level
                         break;
                     } catch (IllegalStateException e) {
                         // well, not found... retry with the next listener
                     }
                 }
+            }
+            currentAnalysingClass = currentAnalysingClass.getSuperclass();
+            if (handledFactory) {
                 currentAnalysingClass = currentAnalysingClass.getSuperclass();
-                if (handledFactory) {
-                    currentAnalysingClass = currentAnalysingClass.getSuperclass();
-                    handledFactory = false;
-                }
+                handledFactory = false;
             }
         }
         if (handledAnnotations.size() != foundAnnotation.size()) {
@@ -133,6 +140,34 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         }
     }
 
+    private Set<String> getInjectFieldsHierachical(Class<?> component) {
+        Set<String> fields = hierarchicalFieldCache.get(component);
+        if (fields == null) {
+            fields =
+                Collections.unmodifiableSet(countComponentContainPaxWicketBeanAnnotatedFieldsHierachical(component));
+            hierarchicalFieldCache.put(component, fields);
+        }
+        return fields;
+    }
+
+    private Set<String> getInjectFieldsOneLevel(Class<?> component) {
+        Set<String> fields = singleLevelFieldCache.get(component);
+        if (fields == null) {
+            fields = Collections.unmodifiableSet(countComponentContainPaxWicketBeanAnnotatedOneLevel(component));
+            singleLevelFieldCache.put(component, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * The analysed classes are only kept as long as the set of injectors stays the same, which is the case as long as
+     * no bundles come or go; this way no classes of uninstalled bundles are kept.
+     */
+    private void clearFieldCaches() {
+        hierarchicalFieldCache.clear();
+        singleLevelFieldCache.clear();
+    }
+
     private final class ComponentInstanciationListenerTracker extends
             ServiceTracker<PaxWicketInjector, PaxWicketInjector> {
 
@@ -146,14 +181,14 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         @Override
         public final PaxWicketInjector addingService(ServiceReference<PaxWicketInjector> reference) {
             PaxWicketInjector resolver = super.addingService(reference);
-            synchronized (resolvers) {
-                resolvers.add(resolver);
-            }
+            resolvers.add(resolver);
+            clearFieldCaches();
             return resolver;
         }
 
         @Override
         public final void modifiedService(ServiceReference<PaxWicketInjector> reference, PaxWicketInjector service) {
+            clearFieldCaches();
             Object objAppName = reference.getProperty(APPLICATION_NAME);
             if (objAppName != null) {
                 Class<?> nameClass = objAppName.getClass();
@@ -179,9 +214,8 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         @Override
         public final void removedService(ServiceReference<PaxWicketInjector> reference, PaxWicketInjector service) {
             PaxWicketInjector resolver = service;
-            synchronized (resolvers) {
-                resolvers.remove(resolver);
-            }
+            resolvers.remove(resolver);
+            clearFieldCaches();
             super.removedService(reference, service);
         }
     }
@@ -18,16 +18,27 @@ package org.ops4j.pax.wicket.util.proxy;
 import java.io.InvalidClassException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.sf.cglib.core.DefaultNamingPolicy;
+import net.sf.cglib.core.NamingPolicy;
 import net.sf.cglib.core.Predicate;
 import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
@@ -47,6 +58,28 @@ public class LazyInitProxyFactory {
              Float.class, Double.class, Character.class,
              Boolean.class });
 
+    /**
+     * A single naming policy instance; the policy is part of the key of CGLIB's own class cache.
+     */
+    private static final NamingPolicy NAMING_POLICY = new DefaultNamingPolicy() {
+        @Override
+        public String getClassName(final String prefix, final String source,
+                                   final Object key, final Predicate names) {
+            return super.getClassName("WICKET_" + prefix, source, key, names);
+        }
+    };
+
+    /**
+     * Already enhanced instances per proxied class, new proxies are created via {@link Factory#newInstance(
+     * net.sf.cglib.proxy.Callback)} instead of generating the class again.
+     */
+    private static final ProxyCache<Factory> CGLIB_PROTOTYPES = new ProxyCache<Factory>();
+
+    /**
+     * Constructors of the jdk proxy classes per proxied interface.
+     */
+    private static final ProxyCache<Constructor<?>> JDK_PROXY_CONSTRUCTORS = new ProxyCache<Constructor<?>>();
+
     public static Object createProxy(final Class<?> type, final ProxyTargetLocator locator) {
         if (type.isPrimitive() || BUILTINS.contains(type) || Enum.class.isAssignableFrom(type)) {
             // We special-case primitives as sometimes people use these as
@@ -60,37 +93,144 @@ public class LazyInitProxyFactory {
             return realTarget;
         } else if (type.isInterface()) {
             JdkHandler handler = new JdkHandler(type, locator);
-
+            Constructor<?> constructor = getJdkProxyConstructor(type);
             try {
-                return Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
-                        new Class[]{ type, Serializable.class, ILazyInitProxy.class,
-                                IWriteReplace.class }, handler);
-            } catch (IllegalArgumentException e) {
-                // While in the original Wicket Environment this is a failure of the context-classloader in PAX-WICKET
-                // this is always an error of missing imports into the classloader. Right now we can do nothing here but
-                // inform the user about the problem and throw an IllegalStateException instead wrapping up and
-                // presenting the real problem.
-                throw new IllegalStateException("The real problem is that the used wrapper classes are not imported " +
-                        "by the bundle using injection", e);
+                return constructor.newInstance(handler);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Could not create proxy for " + type.getName(), e.getCause());
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Could not create proxy for " + type.getName(), e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Could not create proxy for " + type.getName(), e);
             }
-
         } else {
             CGLibInterceptor handler = new CGLibInterceptor(type, locator);
 
+            Factory prototype = CGLIB_PROTOTYPES.get(type.getClassLoader(), type);
+            if (prototype != null) {
+                return prototype.newInstance(handler);
+            }
             Enhancer e = new Enhancer();
             e.setInterfaces(new Class[]{ Serializable.class, ILazyInitProxy.class,
                     IWriteReplace.class });
             e.setSuperclass(type);
             e.setCallback(handler);
-            e.setNamingPolicy(new DefaultNamingPolicy() {
-                @Override
-                public String getClassName(final String prefix, final String source,
-                                           final Object key, final Predicate names) {
-                    return super.getClassName("WICKET_" + prefix, source, key, names);
+            e.setNamingPolicy(NAMING_POLICY);
+
+            Object proxy = e.create();
+            CGLIB_PROTOTYPES.put(type.getClassLoader(), type, (Factory) proxy);
+            return proxy;
+        }
+    }
+
+    private static Constructor<?> getJdkProxyConstructor(Class<?> type) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        Constructor<?> constructor = JDK_PROXY_CONSTRUCTORS.get(classLoader, type);
+        if (constructor != null) {
+            return constructor;
+        }
+        try {
+            constructor = Proxy.getProxyClass(classLoader, new Class[]{ type, Serializable.class,
+                    ILazyInitProxy.class, IWriteReplace.class }).getConstructor(InvocationHandler.class);
+        } catch (IllegalArgumentException e) {
+            // While in the original Wicket Environment this is a failure of the context-classloader in PAX-WICKET
+            // this is always an error of missing imports into the classloader. Right now we can do nothing here but
+            // inform the user about the problem and throw an IllegalStateException instead wrapping up and
+            // presenting the real problem.
+            throw new IllegalStateException("The real problem is that the used wrapper classes are not imported " +
+                    "by the bundle using injection", e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Generated proxy class for " + type.getName()
+                    + " has no InvocationHandler constructor", e);
+        }
+        JDK_PROXY_CONSTRUCTORS.put(classLoader, type, constructor);
+        return constructor;
+    }
+
+    /**
+     * Per class loader cache of proxy related objects. Class loaders and classes are weakly referenced and the cached
+     * values are softly referenced, so neither uninstalled bundles nor their generated classes are pinned forever. The
+     * entries of a class loader are found without locking; only the entries of the same class loader share a lock.
+     */
+    private static final class ProxyCache<T> {
+
+        private final ConcurrentMap<LoaderKey, Map<Class<?>, SoftReference<T>>> entries =
+            new ConcurrentHashMap<LoaderKey, Map<Class<?>, SoftReference<T>>>();
+
+        /**
+         * The entries of the bootstrap class loader, which can't be weakly referenced.
+         */
+        private final Map<Class<?>, SoftReference<T>> bootstrapEntries = new WeakHashMap<Class<?>, SoftReference<T>>();
+
+        private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<ClassLoader>();
+
+        public T get(ClassLoader classLoader, Class<?> type) {
+            Map<Class<?>, SoftReference<T>> loaderEntries =
+                classLoader == null ? bootstrapEntries : entries.get(new LoaderKey(classLoader, null));
+            if (loaderEntries == null) {
+                return null;
+            }
+            SoftReference<T> reference;
+            synchronized (loaderEntries) {
+                reference = loaderEntries.get(type);
+            }
+            return reference == null ? null : reference.get();
+        }
+
+        public void put(ClassLoader classLoader, Class<?> type, T value) {
+            Map<Class<?>, SoftReference<T>> loaderEntries =
+                classLoader == null ? bootstrapEntries : getOrCreateLoaderEntries(classLoader);
+            synchronized (loaderEntries) {
+                loaderEntries.put(type, new SoftReference<T>(value));
+            }
+        }
+
+        private Map<Class<?>, SoftReference<T>> getOrCreateLoaderEntries(ClassLoader classLoader) {
+            Reference<? extends ClassLoader> collected;
+            while ((collected = collectedLoaders.poll()) != null) {
+                entries.remove(collected);
+            }
+            LoaderKey key = new LoaderKey(classLoader, collectedLoaders);
+            Map<Class<?>, SoftReference<T>> loaderEntries = entries.get(key);
+            if (loaderEntries == null) {
+                Map<Class<?>, SoftReference<T>> newEntries = new WeakHashMap<Class<?>, SoftReference<T>>();
+                loaderEntries = entries.putIfAbsent(key, newEntries);
+                if (loaderEntries == null) {
+                    loaderEntries = newEntries;
                 }
-            });
+            }
+            return loaderEntries;
+        }
+    }
+
+    /**
+     * Weak key comparing the class loaders by identity. Once the class loader is collected the key only equals itself,
+     * so it can still be removed from the map.
+     */
+    private static final class LoaderKey extends WeakReference<ClassLoader> {
+
+        private final int hash;
+
+        private LoaderKey(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+            hash = System.identityHashCode(classLoader);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LoaderKey)) {
+                return false;
+            }
+            ClassLoader classLoader = get();
+            return classLoader != null && classLoader == ((LoaderKey) obj).get();
+        }
 
-            return e.create();
+        @Override
+        public int hashCode() {
+            return hash;
         }
     }
 
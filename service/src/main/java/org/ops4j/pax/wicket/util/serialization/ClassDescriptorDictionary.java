@@ -0,0 +1,203 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.serialization;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Assigns short ids to the class descriptors written by the serializer of an application, so a serialized page holds
+ * the id instead of the full descriptor. Ids are scoped by the symbolic name and version of the bundle defining the
+ * class, a class loaded again gets a new id. Whenever the bundles of the application change the serializer retires the
+ * descriptors of classes whose bundle was uninstalled, updated or refreshed since; this way the dictionary doesn't
+ * keep their classes, and data referring to them is treated as missing while all other ids stay readable. The
+ * dictionary only exists in memory, so data written with it can only be read as long as the serializer uses it.
+ */
+final class ClassDescriptorDictionary {
+
+    private final long dictionaryId = new Random().nextLong();
+
+    private final ConcurrentMap<DescriptorKey, Integer> ids = new ConcurrentHashMap<DescriptorKey, Integer>();
+
+    private final List<ObjectStreamClass> descriptors = new CopyOnWriteArrayList<ObjectStreamClass>();
+
+    /**
+     * @return the random id written in front of the data, telling whether data had been written with this dictionary
+     */
+    long getDictionaryId() {
+        return dictionaryId;
+    }
+
+    int getId(ObjectStreamClass descriptor) {
+        Class<?> type = descriptor.forClass();
+        DescriptorKey key = new DescriptorKey(type);
+        Integer id = ids.get(key);
+        if (id != null && isDescriptorOf(id, type)) {
+            return id;
+        }
+        synchronized (descriptors) {
+            id = ids.get(key);
+            if (id == null || !isDescriptorOf(id, type)) {
+                id = descriptors.size();
+                descriptors.add(descriptor);
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    private boolean isDescriptorOf(int id, Class<?> type) {
+        ObjectStreamClass descriptor = descriptors.get(id);
+        return descriptor != null && descriptor.forClass() == type;
+    }
+
+    /**
+     * @return the descriptor or <code>null</code> if the id is unknown or had been retired
+     */
+    ObjectStreamClass getDescriptor(int id) {
+        return id >= 0 && id < descriptors.size() ? descriptors.get(id) : null;
+    }
+
+    /**
+     * Drops the descriptors of the classes which are not the current ones of their bundle anymore. Their ids are not
+     * handed out again, so data written with them can't be read as another class.
+     * 
+     * @return the number of descriptors retired
+     */
+    int retireStaleDescriptors() {
+        Set<Integer> retiredIds = new HashSet<Integer>();
+        synchronized (descriptors) {
+            for (int id = 0; id < descriptors.size(); id++) {
+                ObjectStreamClass descriptor = descriptors.get(id);
+                if (descriptor != null && isStale(descriptor.forClass())) {
+                    descriptors.set(id, null);
+                    retiredIds.add(id);
+                }
+            }
+            // the key can't be computed again, the bundle may have another version by now
+            ids.values().removeAll(retiredIds);
+        }
+        return retiredIds.size();
+    }
+
+    /**
+     * @return <code>true</code> if the bundle of the class had been uninstalled, or updated or refreshed so that its
+     *         classes are loaded by a new class loader
+     */
+    private static boolean isStale(Class<?> type) {
+        if (type == null) {
+            return false;
+        }
+        Bundle bundle = FrameworkUtil.getBundle(type);
+        if (bundle == null) {
+            // classes of the boot class path or not loaded by a bundle at all never change
+            return false;
+        }
+        if (bundle.getState() == Bundle.UNINSTALLED) {
+            return true;
+        }
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        return wiring == null || wiring.getClassLoader() != type.getClassLoader();
+    }
+
+    /**
+     * Writes the id as unsigned variable length number, ids below 128 take a single byte.
+     */
+    static void writeId(DataOutput out, int id) throws IOException {
+        int remaining = id;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte(remaining & 0x7F | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    static int readId(DataInput in) throws IOException {
+        int id = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int next = in.readUnsignedByte();
+            id |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return id;
+            }
+        }
+        throw new StreamCorruptedException("invalid class descriptor id");
+    }
+
+    /**
+     * Thrown while reading data referring to a descriptor which had been retired or never existed.
+     */
+    static final class UnknownDescriptorException extends InvalidClassException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnknownDescriptorException(int id) {
+            super("Unknown class descriptor id " + id);
+        }
+    }
+
+    private static final class DescriptorKey {
+
+        private final String className;
+        private final String bundleSymbolicName;
+        private final String bundleVersion;
+
+        private DescriptorKey(Class<?> type) {
+            className = type.getName();
+            Bundle bundle = FrameworkUtil.getBundle(type);
+            if (bundle != null) {
+                bundleSymbolicName = String.valueOf(bundle.getSymbolicName());
+                bundleVersion = bundle.getVersion().toString();
+            } else {
+                // classes of the boot class path or not loaded by a bundle at all
+                bundleSymbolicName = "";
+                bundleVersion = "";
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DescriptorKey)) {
+                return false;
+            }
+            DescriptorKey other = (DescriptorKey) obj;
+            return className.equals(other.className) && bundleSymbolicName.equals(other.bundleSymbolicName)
+                    && bundleVersion.equals(other.bundleVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return (className.hashCode() * 31 + bundleSymbolicName.hashCode()) * 31 + bundleVersion.hashCode();
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.serialization;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates serialized pages. Compressed data starts with a format byte and the length of the uncompressed data, so it
+ * can be told apart from uncompressed data which starts with the format byte of the serializer or the magic number of
+ * java serialization. Data below the threshold or not getting smaller is kept uncompressed.
+ */
+final class PageCompressor {
+
+    /**
+     * Format byte of deflated data.
+     */
+    static final int DEFLATE_FORMAT_V1 = 0x02;
+
+    private static final int HEADER_LENGTH = 5;
+
+    private final int level;
+
+    private final int threshold;
+
+    /**
+     * @param level the level of the {@link Deflater}
+     * @param threshold the size in bytes below which data is not compressed
+     */
+    PageCompressor(int level, int threshold) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    byte[] compress(byte[] data) {
+        if (data.length < threshold || data.length <= HEADER_LENGTH) {
+            return data;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            // larger output is useless, so the buffer doesn't need to grow
+            byte[] buffer = new byte[data.length];
+            writeHeader(buffer, data.length);
+            int length = HEADER_LENGTH;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                return data;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static boolean isCompressed(byte[] data) {
+        return data != null && data.length >= HEADER_LENGTH && data[0] == DEFLATE_FORMAT_V1;
+    }
+
+    static byte[] decompress(byte[] data) throws IOException {
+        int length = (data[1] & 0xFF) << 24 | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 8 | data[4] & 0xFF;
+        if (length < 0) {
+            throw new StreamCorruptedException("invalid length of compressed data");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            byte[] uncompressed = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int count = inflater.inflate(uncompressed, read, length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += count;
+            }
+            if (read != length) {
+                throw new StreamCorruptedException("compressed data is truncated");
+            }
+            return uncompressed;
+        } catch (DataFormatException e) {
+            IOException exception = new StreamCorruptedException("invalid compressed data");
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeHeader(byte[] buffer, int length) {
+        buffer[0] = DEFLATE_FORMAT_V1;
+        buffer[1] = (byte) (length >>> 24);
+        buffer[2] = (byte) (length >>> 16);
+        buffer[3] = (byte) (length >>> 8);
+        buffer[4] = (byte) length;
+    }
+
+}
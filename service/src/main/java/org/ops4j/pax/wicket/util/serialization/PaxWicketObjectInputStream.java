@@ -22,6 +22,7 @@ import java.io.ObjectStreamClass;
 
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.application.IClassResolver;
+import org.ops4j.pax.wicket.internal.DelegatingClassResolver;
 
 /**
  * @author edward.yakop@gmail.com
@@ -31,13 +32,41 @@ public final class PaxWicketObjectInputStream extends ObjectInputStream {
 
     private final IClassResolver classResolver;
 
+    private final ClassDescriptorDictionary classDescriptors;
+
     public PaxWicketObjectInputStream(InputStream inputStream, IClassResolver resolver) throws IOException {
+        this(inputStream, resolver, null);
+    }
+
+    /**
+     * @param classDescriptors if not <code>null</code> class descriptors are read as ids of this dictionary
+     */
+    PaxWicketObjectInputStream(InputStream inputStream, IClassResolver resolver,
+            ClassDescriptorDictionary classDescriptors) throws IOException {
         super(inputStream);
 
         classResolver = resolver;
+        this.classDescriptors = classDescriptors;
         enableResolveObject(true);
     }
 
+    /**
+     * The descriptor of the dictionary is the one the data had been written with; the class itself is still resolved
+     * by {@link #resolveClass(ObjectStreamClass)}.
+     */
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        if (classDescriptors == null) {
+            return super.readClassDescriptor();
+        }
+        int id = ClassDescriptorDictionary.readId(this);
+        ObjectStreamClass descriptor = classDescriptors.getDescriptor(id);
+        if (descriptor == null) {
+            throw new ClassDescriptorDictionary.UnknownDescriptorException(id);
+        }
+        return descriptor;
+    }
+
     @Override
     protected final Object resolveObject(Object object) throws IOException {
         if (object instanceof ReplaceBundleContext) {
@@ -65,6 +94,10 @@ public final class PaxWicketObjectInputStream extends ObjectInputStream {
     }
 
     private Class<?> resolveClassByClassResolver(String className) {
+        if (classResolver instanceof DelegatingClassResolver) {
+            // answered from the classes remembered for the application, a miss costs no exception
+            return ((DelegatingClassResolver) classResolver).findClass(className);
+        }
         Class<?> resolvedClass = null;
 
         try {
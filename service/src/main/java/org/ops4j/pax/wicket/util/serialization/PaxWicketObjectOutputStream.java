@@ -20,6 +20,7 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.OutputStream;
 
 import org.apache.wicket.core.util.objects.checker.CheckingObjectOutputStream;
@@ -29,17 +30,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Writes objects replacing {@link Bundle}s and {@link BundleContext}s by serializable references. If an object is not
+ * serializable it is written once more by the {@link PaxWicketSerializableChecker} to report the path to the culprit.
+ *
+ * Streams created by the public constructor forward to an inner stream as they always did. The
+ * {@link PaxWicketSerializer} uses a single stream doing the replacement itself instead; since
+ * {@link #writeObject(Object)} of such a stream can't be intercepted, the serializer runs the diagnostics on its own.
+ *
  * @author edward.yakop@gmail.com
  * @since 0.5.4
  */
 public class PaxWicketObjectOutputStream extends ObjectOutputStream {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketObjectOutputStream.class);
+
+    /**
+     * The stream the objects are actually written to; the stream itself if created by the serializer.
+     */
     protected final ObjectOutputStream outputStream;
 
+    private final ClassDescriptorDictionary classDescriptors;
+
     public PaxWicketObjectOutputStream(OutputStream outputStream) throws IOException {
         validateNotNull(outputStream, "outputStream");
         this.outputStream = new OSGiAwareOutputStream(outputStream);
+        classDescriptors = null;
+    }
+
+    /**
+     * Creates a single stream, not forwarding to another one.
+     * 
+     * @param classDescriptors if not <code>null</code> class descriptors are written as ids of this dictionary
+     */
+    PaxWicketObjectOutputStream(OutputStream outputStream, ClassDescriptorDictionary classDescriptors)
+        throws IOException {
+        super(checkNotNull(outputStream));
+        this.outputStream = this;
+        this.classDescriptors = classDescriptors;
+        enableReplaceObject(true);
+    }
+
+    private static OutputStream checkNotNull(OutputStream outputStream) {
+        validateNotNull(outputStream, "outputStream");
+        return outputStream;
     }
 
     @Override
@@ -47,30 +80,7 @@ public class PaxWicketObjectOutputStream extends ObjectOutputStream {
         try {
             outputStream.writeObject(object);
         } catch (NotSerializableException e) {
-            if (CheckingObjectOutputStream.isAvailable()) {
-                // trigger serialization again, but this time gather some more info
-                new PaxWicketSerializableChecker(e) {
-                    @Override
-                    protected boolean validateAdditionalSerializableConditions(Object obj) {
-                        return !(obj instanceof BundleContext) && !(obj instanceof Bundle);
-                    }
-
-                    @Override
-                    protected Object additionalObjectReplacements(Object streamObj) {
-                        if (streamObj instanceof BundleContext) {
-                            BundleContext context = (BundleContext) streamObj;
-                            streamObj = new ReplaceBundleContext(context);
-                        } else if (streamObj instanceof Bundle) {
-                            Bundle bundle = (Bundle) streamObj;
-                            streamObj = new ReplaceBundle(bundle);
-                        }
-                        return streamObj;
-                    }
-                }.writeObject(object);
-                // if we get here, we didn't fail, while we should;
-                throw e;
-            }
-            throw e;
+            rethrowWithDiagnostics(object, e);
         } catch (RuntimeException e) {
             LOGGER.error("error writing object " + object + ": " + e.getMessage(), e);
             throw e;
@@ -79,12 +89,70 @@ public class PaxWicketObjectOutputStream extends ObjectOutputStream {
 
     @Override
     public final void flush() throws IOException {
-        outputStream.flush();
+        if (outputStream == this) {
+            super.flush();
+        } else {
+            outputStream.flush();
+        }
     }
 
     @Override
     public final void close() throws IOException {
-        outputStream.close();
+        if (outputStream == this) {
+            super.close();
+        } else {
+            outputStream.close();
+        }
+    }
+
+    @Override
+    protected Object replaceObject(Object object) throws IOException {
+        return replaceBundleReferences(object);
+    }
+
+    private static Object replaceBundleReferences(Object object) {
+        if (object instanceof BundleContext) {
+            BundleContext context = (BundleContext) object;
+            return new ReplaceBundleContext(context);
+        } else if (object instanceof Bundle) {
+            Bundle bundle = (Bundle) object;
+            return new ReplaceBundle(bundle);
+        } else {
+            return object;
+        }
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass descriptor) throws IOException {
+        if (classDescriptors == null) {
+            super.writeClassDescriptor(descriptor);
+        } else {
+            ClassDescriptorDictionary.writeId(this, classDescriptors.getId(descriptor));
+        }
+    }
+
+    /**
+     * Serializes the object once more, this time gathering the path to the object which is not serializable.
+     * 
+     * @throws PaxWicketSerializableChecker.WicketNotSerializableException describing the path, or the given exception
+     *         if the checker is not available or didn't find the cause
+     */
+    static void rethrowWithDiagnostics(Object object, NotSerializableException e) throws IOException {
+        if (CheckingObjectOutputStream.isAvailable()) {
+            new PaxWicketSerializableChecker(e) {
+                @Override
+                protected boolean validateAdditionalSerializableConditions(Object obj) {
+                    return !(obj instanceof BundleContext) && !(obj instanceof Bundle);
+                }
+
+                @Override
+                protected Object additionalObjectReplacements(Object streamObj) {
+                    return replaceBundleReferences(streamObj);
+                }
+            }.writeObject(object);
+            // if we get here, we didn't fail, while we should;
+        }
+        throw e;
     }
 
     private static final class OSGiAwareOutputStream extends ObjectOutputStream {
@@ -98,15 +166,7 @@ public class PaxWicketObjectOutputStream extends ObjectOutputStream {
         @Override
         protected Object replaceObject(Object object)
             throws IOException {
-            if (object instanceof BundleContext) {
-                BundleContext context = (BundleContext) object;
-                return new ReplaceBundleContext(context);
-            } else if (object instanceof Bundle) {
-                Bundle bundle = (Bundle) object;
-                return new ReplaceBundle(bundle);
-            } else {
-                return super.replaceObject(object);
-            }
+            return replaceBundleReferences(object);
         }
     }
 
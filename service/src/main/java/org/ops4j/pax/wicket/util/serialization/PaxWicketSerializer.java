@@ -20,26 +20,211 @@ import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.serialize.java.JavaSerializer;
 import org.apache.wicket.settings.IApplicationSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * A simple wrapper for the original wicket serializer making it possible to serialize class which inject osgi
  * bundle based classes.
+ *
+ * If enabled by {@link #setCompactClassDescriptors(boolean)} the class descriptors are written as short ids of a
+ * dictionary kept by the serializer instead of full descriptors. Such data starts with a format byte and the id of the
+ * dictionary; data written by another serializer instance (e.g. before a restart of the application or on another
+ * cluster node) can't be read and is treated as missing, as well as data referring to classes retired by
+ * {@link #retireStaleClassDescriptors()}. Data without the format byte is always read as plain java serialization.
+ *
+ * If enabled by {@link #setCompression(int, int)} pages above a size threshold are deflated. Compressed data starts
+ * with a format byte of its own, so compressed and uncompressed data can be read alike.
  */
 public class PaxWicketSerializer extends JavaSerializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketSerializer.class);
+
+    /**
+     * Format byte of data with compact class descriptors; plain java serialization starts with 0xAC instead.
+     */
+    private static final int COMPACT_FORMAT_V1 = 0x01;
+
+    /**
+     * Pooled buffers larger than this are dropped after use instead of being kept for the next page.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private static final int MAX_POOLED_OUTPUTS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final String applicationKey;
+
+    private volatile ClassDescriptorDictionary classDescriptors;
+
+    private volatile PageCompressor compressor;
+
+    /**
+     * Outputs not in use right now. The pool belongs to the serializer rather than to the request threads, so the
+     * outputs (and the classes of their descriptors) are gone together with the application.
+     */
+    private final BlockingQueue<PooledOutput> pooledOutputs = new ArrayBlockingQueue<PooledOutput>(MAX_POOLED_OUTPUTS);
+
     public PaxWicketSerializer(String applicationKey) {
         super(applicationKey);
+        this.applicationKey = applicationKey;
+    }
+
+    /**
+     * Switches between compact and full class descriptors for the data written from now on. Data written with compact
+     * descriptors is not readable anymore once they are switched off.
+     */
+    public synchronized void setCompactClassDescriptors(boolean compactClassDescriptors) {
+        if (!compactClassDescriptors) {
+            classDescriptors = null;
+        } else if (classDescriptors == null) {
+            classDescriptors = new ClassDescriptorDictionary();
+        }
+        pooledOutputs.clear();
+    }
+
+    /**
+     * Drops the compact class descriptors of classes whose bundle was uninstalled, updated or refreshed, to be called
+     * whenever the bundles of the application change. Data referring to such a class is treated as missing from now
+     * on; all other data written so far stays readable.
+     */
+    public void retireStaleClassDescriptors() {
+        ClassDescriptorDictionary dictionary = classDescriptors;
+        if (dictionary != null) {
+            int retired = dictionary.retireStaleDescriptors();
+            LOGGER.debug("Retired {} class descriptors of changed bundles", retired);
+        }
+    }
+
+    public boolean isCompactClassDescriptors() {
+        return classDescriptors != null;
+    }
+
+    /**
+     * Compresses the data written from now on with the given level of the {@link java.util.zip.Deflater}, data smaller
+     * than the threshold is left as it is. Data written compressed stays readable after the compression is switched
+     * off.
+     *
+     * @param level the compression level, {@link java.util.zip.Deflater#NO_COMPRESSION} switches the compression off
+     * @param threshold the size in bytes from which on data is compressed
+     */
+    public void setCompression(int level, int threshold) {
+        compressor = level == 0 ? null : new PageCompressor(level, threshold);
+    }
+
+    public boolean isCompression() {
+        return compressor != null;
+    }
+
+    /**
+     * Works like {@link JavaSerializer#serialize(Object)}, but the {@link PaxWicketObjectOutputStream}s and their
+     * buffers are taken from a small pool and reused for the next page.
+     */
+    @Override
+    public byte[] serialize(Object object) {
+        ClassDescriptorDictionary dictionary = classDescriptors;
+        PooledOutput output = pooledOutputs.poll();
+        try {
+            if (output == null || output.classDescriptors != dictionary) {
+                output = new PooledOutput(dictionary);
+            }
+            try {
+                output.stream.writeObject(applicationKey);
+                output.stream.writeObject(object);
+            } catch (NotSerializableException e) {
+                PaxWicketObjectOutputStream.rethrowWithDiagnostics(object, e);
+            }
+            output.stream.flush();
+            byte[] data = output.buffer.toByteArray();
+            if (output.classDescriptors == classDescriptors && output.recycle()) {
+                pooledOutputs.offer(output);
+            }
+            PageCompressor currentCompressor = compressor;
+            return currentCompressor != null ? currentCompressor.compress(data) : data;
+        } catch (Exception e) {
+            // the output is dropped, its stream may be in any state
+            LOGGER.error("Error serializing object " + object.getClass() + " [object=" + object + "]", e);
+        }
+        return null;
+    }
+
+    @Override
+    public Object deserialize(byte[] data) {
+        if (PageCompressor.isCompressed(data)) {
+            try {
+                data = PageCompressor.decompress(data);
+            } catch (IOException e) {
+                LOGGER.error("Error decompressing data", e);
+                return null;
+            }
+        }
+        if (data != null && data.length > 0 && data[0] == COMPACT_FORMAT_V1 && getDictionary(data) == null) {
+            LOGGER.debug("Ignoring data written with the class descriptors of another serializer instance");
+            return null;
+        }
+        try {
+            return super.deserialize(data);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ClassDescriptorDictionary.UnknownDescriptorException) {
+                LOGGER.debug("Ignoring data referring to a class of a changed bundle", e);
+                return null;
+            }
+            throw e;
+        }
     }
 
     @Override
     protected ObjectInputStream newObjectInputStream(InputStream in) throws IOException {
-        return new PaxWicketObjectInputStream(in, getClassResolver());
+        PushbackInputStream input = new PushbackInputStream(in);
+        int format = input.read();
+        if (format == COMPACT_FORMAT_V1) {
+            ClassDescriptorDictionary dictionary = classDescriptors;
+            long dictionaryId = new DataInputStream(input).readLong();
+            if (dictionary == null || dictionary.getDictionaryId() != dictionaryId) {
+                throw new InvalidClassException("Data was written with the class descriptors of another serializer");
+            }
+            return new PaxWicketObjectInputStream(input, getClassResolver(), dictionary);
+        }
+        if (format != -1) {
+            input.unread(format);
+        }
+        return new PaxWicketObjectInputStream(input, getClassResolver());
     }
 
     @Override
     protected ObjectOutputStream newObjectOutputStream(OutputStream out) throws IOException {
-        return new PaxWicketObjectOutputStream(out);
+        ClassDescriptorDictionary dictionary = classDescriptors;
+        writeFormatHeader(out, dictionary);
+        return new PaxWicketObjectOutputStream(out, dictionary);
+    }
+
+    private static void writeFormatHeader(OutputStream out, ClassDescriptorDictionary dictionary) throws IOException {
+        if (dictionary != null) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeByte(COMPACT_FORMAT_V1);
+            header.writeLong(dictionary.getDictionaryId());
+            header.flush();
+        }
+    }
+
+    /**
+     * @return the dictionary the data had been written with or <code>null</code> if it's not the current one
+     */
+    private ClassDescriptorDictionary getDictionary(byte[] data) {
+        ClassDescriptorDictionary dictionary = classDescriptors;
+        if (dictionary == null || data.length < 9) {
+            return null;
+        }
+        long dictionaryId = 0;
+        for (int i = 1; i < 9; i++) {
+            dictionaryId = dictionaryId << 8 | data[i] & 0xFF;
+        }
+        return dictionary.getDictionaryId() == dictionaryId ? dictionary : null;
     }
 
     private IClassResolver getClassResolver() {
@@ -47,4 +232,55 @@ public class PaxWicketSerializer extends JavaSerializer {
         IApplicationSettings appSettings = application.getApplicationSettings();
         return appSettings.getClassResolver();
     }
+
+    /**
+     * A stream writing into a buffer which are both reused for the next page. Between two pages the handles of the
+     * stream are reset and the buffer is refilled with the headers of a new stream.
+     */
+    private static final class PooledOutput {
+
+        private final ClassDescriptorDictionary classDescriptors;
+        private final PageBuffer buffer = new PageBuffer();
+        private final PaxWicketObjectOutputStream stream;
+
+        private PooledOutput(ClassDescriptorDictionary classDescriptors) throws IOException {
+            this.classDescriptors = classDescriptors;
+            writeFormatHeader(buffer, classDescriptors);
+            stream = new PaxWicketObjectOutputStream(buffer, classDescriptors);
+        }
+
+        /**
+         * @return <code>false</code> if the output should not be reused
+         */
+        private boolean recycle() {
+            if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+                return false;
+            }
+            try {
+                // the reset marker written by the stream is dropped together with the previous page
+                stream.reset();
+                stream.flush();
+                buffer.reset();
+                writeFormatHeader(buffer, classDescriptors);
+                DataOutputStream header = new DataOutputStream(buffer);
+                header.writeShort(ObjectStreamConstants.STREAM_MAGIC);
+                header.writeShort(ObjectStreamConstants.STREAM_VERSION);
+                return true;
+            } catch (IOException e) {
+                LOGGER.debug("Can't reuse the output stream", e);
+                return false;
+            }
+        }
+    }
+
+    private static final class PageBuffer extends ByteArrayOutputStream {
+
+        private PageBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.junit.Test;
+
+public class SessionOrderedDataStoreTest {
+
+    private static final byte[] FIRST = { 1 };
+    private static final byte[] SECOND = { 2 };
+    private static final byte[] THIRD = { 3 };
+
+    @Test
+    public void testPendingPageIsReadAndOnlyLatestVersionIsWritten() throws Exception {
+        BlockingDataStore delegate = new BlockingDataStore();
+        SessionOrderedDataStore store = new SessionOrderedDataStore(delegate, 100, 1);
+
+        store.storeData("session", 1, FIRST);
+        delegate.awaitFirstWrite();
+        store.storeData("session", 1, SECOND);
+        store.storeData("session", 1, THIRD);
+        assertTrue(Arrays.equals(THIRD, store.getData("session", 1)));
+        assertEquals(3, store.getQueueDepth());
+
+        delegate.release();
+        store.destroy();
+        assertEquals(Arrays.asList("store session 1 [1]", "store session 1 [3]", "destroy"), delegate.operations);
+        assertEquals(0, store.getQueueDepth());
+    }
+
+    @Test
+    public void testRemovalIsAppliedInSessionOrder() throws Exception {
+        BlockingDataStore delegate = new BlockingDataStore();
+        SessionOrderedDataStore store = new SessionOrderedDataStore(delegate, 100, 1);
+
+        store.storeData("session", 1, FIRST);
+        delegate.awaitFirstWrite();
+        store.storeData("session", 2, SECOND);
+        store.removeData("session", 2);
+        assertNull(store.getData("session", 2));
+        store.storeData("session", 3, THIRD);
+        store.removeData("session");
+        assertNull(store.getData("session", 3));
+
+        delegate.release();
+        store.destroy();
+        assertEquals(Arrays.asList("store session 1 [1]", "remove session 2", "remove session", "destroy"),
+            delegate.operations);
+    }
+
+    @Test
+    public void testWrittenPageIsNotReadWhileItsRemovalIsPending() throws Exception {
+        BlockingDataStore delegate = new BlockingDataStore();
+        SessionOrderedDataStore store = new SessionOrderedDataStore(delegate, 100, 1);
+
+        store.storeData("session", 1, FIRST);
+        delegate.awaitFirstWrite();
+        // the page is written already, but its removal is still queued
+        store.removeData("session", 1);
+        assertNull(store.getData("session", 1));
+
+        store.storeData("other", 2, SECOND);
+        store.removeData("other");
+        assertNull(store.getData("other", 2));
+
+        delegate.release();
+        store.destroy();
+        assertNull(store.getData("session", 1));
+        assertEquals(Arrays.asList("store session 1 [1]", "remove session 1", "remove other", "destroy"),
+            delegate.operations);
+    }
+
+    @Test
+    public void testFullQueueLetsRequestWaitForItsPage() throws Exception {
+        BlockingDataStore delegate = new BlockingDataStore();
+        final SessionOrderedDataStore store = new SessionOrderedDataStore(delegate, 1, 1);
+
+        store.storeData("session", 1, FIRST);
+        delegate.awaitFirstWrite();
+        store.removeData("session", 2);
+        Thread request = new Thread() {
+            @Override
+            public void run() {
+                store.storeData("session", 2, SECOND);
+            }
+        };
+        request.start();
+        request.join(200);
+        assertTrue(request.isAlive());
+        assertEquals(1, store.getSynchronousWrites());
+
+        delegate.release();
+        request.join(TimeUnit.SECONDS.toMillis(10));
+        // written behind the removal queued before, not in front of it
+        assertEquals(Arrays.asList("store session 1 [1]", "remove session 2", "store session 2 [2]"),
+            delegate.operations);
+        store.destroy();
+    }
+
+    /**
+     * Records the operations and blocks the first write until released.
+     */
+    private static final class BlockingDataStore implements IDataStore {
+
+        private final List<String> operations = new ArrayList<String>();
+        private final Map<String, byte[]> pages = new HashMap<String, byte[]>();
+        private final CountDownLatch firstWrite = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private void awaitFirstWrite() throws InterruptedException {
+            assertTrue(firstWrite.await(10, TimeUnit.SECONDS));
+        }
+
+        private void release() {
+            released.countDown();
+        }
+
+        public void storeData(String sessionId, int id, byte[] data) {
+            synchronized (this) {
+                operations.add("store " + sessionId + " " + id + " " + Arrays.toString(data));
+                pages.put(sessionId + id, data);
+            }
+            firstWrite.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public synchronized byte[] getData(String sessionId, int id) {
+            return pages.get(sessionId + id);
+        }
+
+        public synchronized void removeData(String sessionId, int id) {
+            operations.add("remove " + sessionId + " " + id);
+            pages.remove(sessionId + id);
+        }
+
+        public synchronized void removeData(String sessionId) {
+            operations.add("remove " + sessionId);
+            pages.clear();
+        }
+
+        public synchronized void destroy() {
+            operations.add("destroy");
+        }
+
+        public boolean isReplicated() {
+            return false;
+        }
+
+        public boolean canBeAsynchronous() {
+            return true;
+        }
+    }
+
+}
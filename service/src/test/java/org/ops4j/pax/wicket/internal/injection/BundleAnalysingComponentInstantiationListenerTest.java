@@ -0,0 +1,99 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBeanInjectionSource;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class BundleAnalysingComponentInstantiationListenerTest {
+
+    private BundleAnalysingComponentInstantiationListener listener;
+
+    private BundleWiring bundleWiring;
+
+    @Before
+    public void setUp() {
+        BundleContext bundleContext = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        bundleWiring = mock(BundleWiring.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        when(bundle.getSymbolicName()).thenReturn("test.bundle");
+        when(bundle.adapt(BundleWiring.class)).thenReturn(bundleWiring);
+        when(bundleWiring.listResources("/", "*.class",
+            BundleWiring.LISTRESOURCES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL)).thenReturn(Arrays.asList(
+            "org/ops4j/pax/wicket/internal/injection/BundleAnalysingComponentInstantiationListenerTest.class",
+            "org/ops4j/pax/wicket/internal/injection/BundleAnalysingComponentInstantiationListenerTest$Nested.class",
+            "org/ops4j/pax/wicket/internal/injection/BundleAnalysingComponentInstantiationListenerTest$1.class"));
+        listener = new BundleAnalysingComponentInstantiationListener(bundleContext,
+            PaxWicketBeanInjectionSource.INJECTION_SOURCE_SCAN, null);
+    }
+
+    @Test
+    public void testInjectionPossible_shouldListContainedClassesOnFirstUseOnly() {
+        verify(bundleWiring, never()).listResources("/", "*.class",
+            BundleWiring.LISTRESOURCES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL);
+        listener.injectionPossible(Nested.class);
+        listener.injectionPossible(NotListed.class);
+        verify(bundleWiring, times(1)).listResources("/", "*.class",
+            BundleWiring.LISTRESOURCES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL);
+    }
+
+    @Test
+    public void testInjectionPossible_shouldFindContainedClasses() {
+        assertTrue(listener.injectionPossible(BundleAnalysingComponentInstantiationListenerTest.class));
+        assertTrue(listener.injectionPossible(Nested.class));
+        assertTrue(listener.injectionPossible(new Object() {
+        }.getClass()));
+    }
+
+    @Test
+    public void testInjectionPossible_shouldNotFindForeignOrPartialClassNames() {
+        assertFalse(listener.injectionPossible(String.class));
+        assertFalse(listener.injectionPossible(NotListed.class));
+    }
+
+    @Test
+    public void testInjectionPossible_shouldFindEnhancedClasses() {
+        assertTrue(listener.injectionPossible(Nested$$EnhancerByCGLIB$$4711.class));
+    }
+
+    private static class Nested {
+    }
+
+    private static class NotListed {
+    }
+
+    /**
+     * Stands in for a subclass generated by CGLIB for {@link Nested}.
+     */
+    private static class Nested$$EnhancerByCGLIB$$4711 extends Nested {
+    }
+
+}
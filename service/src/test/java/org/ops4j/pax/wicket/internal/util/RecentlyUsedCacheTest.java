@@ -0,0 +1,55 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RecentlyUsedCacheTest {
+
+    @Test
+    public void testEntriesInUseSurviveAndOthersAreEvicted() {
+        RecentlyUsedCache<String, Integer> cache = new RecentlyUsedCache<String, Integer>(2);
+        cache.put("used", 1);
+        cache.put("unused", 2);
+        // the first generation is full, both entries are old now
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(1), cache.get("used"));
+            cache.put("new" + i, i);
+        }
+        assertEquals(Integer.valueOf(1), cache.get("used"));
+        assertNull(cache.get("unused"));
+        assertTrue(cache.size() <= 4);
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        RecentlyUsedCache<String, Integer> cache = new RecentlyUsedCache<String, Integer>(10);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.remove("a", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.remove("a", 1);
+        assertNull(cache.get("a"));
+        cache.clear();
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.size());
+    }
+
+}
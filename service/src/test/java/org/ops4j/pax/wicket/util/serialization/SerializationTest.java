@@ -16,18 +16,26 @@
 package org.ops4j.pax.wicket.util.serialization;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.zip.Deflater;
 
 import org.apache.wicket.application.IClassResolver;
+import org.apache.wicket.util.tester.WicketTester;
 import org.junit.Test;
 import org.ops4j.pax.wicket.internal.EnumerationAdapter;
 
@@ -38,38 +46,7 @@ public final class SerializationTest {
 
     @Test
     public final void testSerialization() throws Throwable {
-        IClassResolver resolver = new IClassResolver()
-        {
-
-            public Class<?> resolveClass(String classname)
-                throws ClassNotFoundException
-            {
-                ClassLoader classLoader = getClass().getClassLoader();
-                return classLoader.loadClass(classname);
-            }
-
-            public Iterator<URL> getResources(String name)
-            {
-                try
-                {
-                    ClassLoader classLoader = getClass().getClassLoader();
-                    return new EnumerationAdapter<URL>(classLoader.getResources(name));
-                }
-                catch (IOException e)
-                {
-                    return Collections.<URL> emptyList().iterator();
-                }
-            }
-
-            /**
-             * This method is uses only for some internal wicket stuff if the IClassResolver is NOT replaced and in some
-             * IOC stuff also not used by pax wicket. Therefore this method should never ever be called. If it is though
-             * we want to be informed about the problem as soon as possible.
-             */
-            public ClassLoader getClassLoader() {
-                throw new UnsupportedOperationException("This method should NOT BE CALLED!");
-            }
-        };
+        IClassResolver resolver = new TestClassResolver();
 
         testSerializeObject("pax-wicket", resolver);
         testSerializeObject(1, resolver);
@@ -79,6 +56,108 @@ public final class SerializationTest {
         testSerializeObject(someObject, resolver);
     }
 
+    @Test
+    public final void testCompactClassDescriptors() throws Throwable {
+        IClassResolver resolver = new TestClassResolver();
+        ClassDescriptorDictionary classDescriptors = new ClassDescriptorDictionary();
+        SomeObject someObject = createSomeObject();
+
+        byte[] compact = serialize(someObject, classDescriptors);
+        byte[] full = serialize(someObject, null);
+        assertTrue(compact.length < full.length);
+
+        // the ids are shared by all streams written with the dictionary
+        assertEquals(someObject, deserialize(compact, resolver, classDescriptors));
+        assertEquals(someObject, deserialize(serialize(someObject, classDescriptors), resolver, classDescriptors));
+    }
+
+    @Test
+    public final void testSerializerReusesStreams() throws Throwable {
+        WicketTester tester = new WicketTester();
+        try {
+            testSerializerReusesStreams(false);
+            testSerializerReusesStreams(true);
+        } finally {
+            tester.destroy();
+        }
+    }
+
+    private void testSerializerReusesStreams(boolean compactClassDescriptors) {
+        PaxWicketSerializer serializer = new PaxWicketSerializer("pax-wicket-test");
+        serializer.setCompactClassDescriptors(compactClassDescriptors);
+        List<Object> objects = Arrays.<Object> asList("pax-wicket", createSomeObject(), 1, createSomeObject());
+
+        byte[][] data = new byte[objects.size()][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = serializer.serialize(objects.get(i));
+        }
+        // nothing of the previous object is left in the reused stream
+        assertEquals(data[1].length, data[3].length);
+
+        assertNull(serializer.serialize(new Object()));
+        SomeObject afterFailure = createSomeObject();
+        byte[] afterFailureData = serializer.serialize(afterFailure);
+
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(objects.get(i), serializer.deserialize(data[i]));
+        }
+        assertEquals(afterFailure, serializer.deserialize(afterFailureData));
+    }
+
+    @Test
+    public final void testRetireStaleClassDescriptors() throws Throwable {
+        WicketTester tester = new WicketTester();
+        try {
+            PaxWicketSerializer serializer = new PaxWicketSerializer("pax-wicket-test");
+            serializer.setCompactClassDescriptors(true);
+            SomeObject someObject = createSomeObject();
+            byte[] beforeChange = serializer.serialize(someObject);
+
+            // the classes of the page are not defined by a changed bundle, so the page stays readable
+            serializer.retireStaleClassDescriptors();
+            assertEquals(someObject, serializer.deserialize(beforeChange));
+            assertEquals(someObject, serializer.deserialize(serializer.serialize(someObject)));
+        } finally {
+            tester.destroy();
+        }
+    }
+
+    @Test
+    public final void testCompression() throws Throwable {
+        IClassResolver resolver = new TestClassResolver();
+        List<String> page = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            page.add("pax-wicket-component-" + i);
+        }
+        byte[] data = serialize(page, null);
+
+        byte[] compressed = new PageCompressor(Deflater.BEST_SPEED, 0).compress(data);
+        assertTrue(PageCompressor.isCompressed(compressed));
+        assertTrue(compressed.length < data.length);
+        assertTrue(Arrays.equals(data, PageCompressor.decompress(compressed)));
+
+        // data below the threshold stays as it is and is still readable
+        byte[] uncompressed = new PageCompressor(Deflater.BEST_SPEED, data.length + 1).compress(data);
+        assertFalse(PageCompressor.isCompressed(uncompressed));
+        assertEquals(page, deserialize(uncompressed, resolver, null));
+    }
+
+    private byte[] serialize(Object objectToSerialize, ClassDescriptorDictionary classDescriptors)
+        throws IOException {
+        ByteArrayOutputStream byteArrayOS = new ByteArrayOutputStream();
+        PaxWicketObjectOutputStream outputStream = new PaxWicketObjectOutputStream(byteArrayOS, classDescriptors);
+        outputStream.writeObject(objectToSerialize);
+        outputStream.close();
+        return byteArrayOS.toByteArray();
+    }
+
+    private Object deserialize(byte[] data, IClassResolver resolver, ClassDescriptorDictionary classDescriptors)
+        throws IOException, ClassNotFoundException {
+        PaxWicketObjectInputStream inputStream =
+            new PaxWicketObjectInputStream(new ByteArrayInputStream(data), resolver, classDescriptors);
+        return inputStream.readObject();
+    }
+
     private SomeObject createSomeObject() {
         SomeObject someObject = new SomeObject();
         Random random = new Random(System.currentTimeMillis());
@@ -108,6 +187,38 @@ public final class SerializationTest {
         assertEquals(objectToSerialize, object);
     }
 
+    private static final class TestClassResolver implements IClassResolver {
+
+        public Class<?> resolveClass(String classname)
+            throws ClassNotFoundException
+        {
+            ClassLoader classLoader = getClass().getClassLoader();
+            return classLoader.loadClass(classname);
+        }
+
+        public Iterator<URL> getResources(String name)
+        {
+            try
+            {
+                ClassLoader classLoader = getClass().getClassLoader();
+                return new EnumerationAdapter<URL>(classLoader.getResources(name));
+            }
+            catch (IOException e)
+            {
+                return Collections.<URL> emptyList().iterator();
+            }
+        }
+
+        /**
+         * This method is uses only for some internal wicket stuff if the IClassResolver is NOT replaced and in some
+         * IOC stuff also not used by pax wicket. Therefore this method should never ever be called. If it is though
+         * we want to be informed about the problem as soon as possible.
+         */
+        public ClassLoader getClassLoader() {
+            throw new UnsupportedOperationException("This method should NOT BE CALLED!");
+        }
+    }
+
     public static class SomeObject
             implements Serializable {
         private static final long serialVersionUID = 1L;